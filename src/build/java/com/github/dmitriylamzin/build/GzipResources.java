@@ -0,0 +1,57 @@
+package com.github.dmitriylamzin.build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a gzipped copy next to every file with the given suffix in a directory tree.
+ *
+ * <p>Runs at build time, so static resources are served pre-compressed.
+ * Copies, which are newer than their files, are kept.
+ * */
+public class GzipResources {
+
+  /**
+   * Entry point.
+   *
+   * @param args the directory to look for files in and the suffix of files to be gzipped.
+   * */
+  public static void main(String[] args) throws IOException {
+    Path root = Paths.get(args[0]);
+    String suffix = args[1];
+    if (!Files.isDirectory(root)) {
+      return;
+    }
+    List<Path> files;
+    try (Stream<Path> found = Files.walk(root)) {
+      files = found.filter(file -> file.getFileName().toString().endsWith(suffix))
+              .collect(Collectors.toList());
+    }
+    for (Path file : files) {
+      Path gzipped = file.resolveSibling(file.getFileName() + ".gz");
+      if (Files.exists(gzipped)
+              && Files.getLastModifiedTime(gzipped).compareTo(Files.getLastModifiedTime(file)) >= 0) {
+        continue;
+      }
+      try (OutputStream out = new BestCompressionOutputStream(Files.newOutputStream(gzipped))) {
+        Files.copy(file, out);
+      }
+    }
+  }
+
+  private static class BestCompressionOutputStream extends GZIPOutputStream {
+
+    BestCompressionOutputStream(OutputStream out) throws IOException {
+      super(out);
+      def.setLevel(Deflater.BEST_COMPRESSION);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package com.github.dmitriylamzin;
 
+import com.github.dmitriylamzin.storage.ReplicationProperties;
 import com.github.dmitriylamzin.storage.StorageProperties;
 import com.github.dmitriylamzin.storage.StorageService;
 import org.springframework.boot.CommandLineRunner;
@@ -7,18 +8,23 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
-@EnableConfigurationProperties(StorageProperties.class)
+@EnableConfigurationProperties({StorageProperties.class, ReplicationProperties.class})
+@EnableScheduling
 public class Application {
   public static void main(String[] args) {
     SpringApplication.run(Application.class, args);
   }
 
   @Bean
-  CommandLineRunner init(StorageService storageService) {
+  CommandLineRunner init(StorageService storageService, StorageProperties properties) {
     return (args) -> {
-      storageService.deleteAll();
+      if (properties.isCleanOnStartup()) {
+        storageService.deleteAlbums();
+        storageService.deleteAll();
+      }
       storageService.init();
     };
   }
@@ -0,0 +1,38 @@
+package com.github.dmitriylamzin;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.web.ResourceProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.resource.GzipResourceResolver;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
+
+/**
+ * Serves stylesheets with a content hash in their names, gzipped to clients,
+ * which accept gzip encoding.
+ *
+ * <p>The gzip resolver is placed ahead of the version resolver, so the hash
+ * is computed from the stylesheet itself rather than from its gzipped copy,
+ * and the gzipped copy is returned with its <code>Content-Encoding</code>.
+ * */
+@Configuration
+public class StaticResourceConfiguration extends WebMvcConfigurerAdapter {
+
+  private final ResourceProperties resourceProperties;
+
+  @Autowired
+  public StaticResourceConfiguration(ResourceProperties resourceProperties) {
+    this.resourceProperties = resourceProperties;
+  }
+
+  @Override
+  public void addResourceHandlers(ResourceHandlerRegistry registry) {
+    registry.addResourceHandler("/css/**")
+            .addResourceLocations("classpath:/static/css/")
+            .setCachePeriod(resourceProperties.getCachePeriod())
+            .resourceChain(true)
+            .addResolver(new GzipResourceResolver())
+            .addResolver(new VersionResourceResolver().addContentVersionStrategy("/**"));
+  }
+}
@@ -1,7 +1,9 @@
 package com.github.dmitriylamzin.controller;
 
+import com.github.dmitriylamzin.storage.GalleryArchiver;
 import com.github.dmitriylamzin.storage.StorageException;
 import com.github.dmitriylamzin.storage.StorageFileNotFoundException;
+import com.github.dmitriylamzin.storage.StorageProperties;
 import com.github.dmitriylamzin.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,8 +27,11 @@ import org.springframework.web.servlet.mvc.method.annotation.MvcUriComponentsBui
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.servlet.http.HttpServletResponse;
 
 /**
 * RESTLike service for uploading PNG type files.
@@ -51,22 +56,39 @@ public class FileUploadController {
    * The style scheme of gallery page that will be set up by default.
    * */
   private static String DEFAULT_STYLESHEET = "white.css";
+  /**
+   * The maximum distance of perceptual hashes of similar images that will be set up by default.
+   * */
+  private static final String DEFAULT_SIMILARITY_DISTANCE = "8";
 
   /**
    * The service, which provide storing and retrieving functions for files.
    * */
   private final StorageService storageService;
 
+  /**
+   * The service, which exports and imports the whole gallery as an archive.
+   * */
+  private final GalleryArchiver galleryArchiver;
+
+  /**
+   * Whether the default album should be cleared when the upload form is opened.
+   * */
+  private final boolean cleanOnUploadForm;
+
   private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
   /**
    * Constructor.
    * */
   @Autowired
-  public FileUploadController(StorageService storageService) {
+  public FileUploadController(StorageService storageService, GalleryArchiver galleryArchiver,
+                              StorageProperties properties) {
     logger.debug("initialization");
     logger.debug("setting up storage service - " + storageService.getClass());
     this.storageService = storageService;
+    this.galleryArchiver = galleryArchiver;
+    this.cleanOnUploadForm = properties.isCleanOnUploadForm();
   }
 
   /**
@@ -76,7 +98,9 @@ public class FileUploadController {
   public String getUploadForm(Model model) throws IOException {
     logger.info("getting upload form");
     model.addAttribute("stylesheet", DEFAULT_STYLESHEET);
-    storageService.deleteAll();
+    if (cleanOnUploadForm) {
+      storageService.deleteAll();
+    }
     storageService.init();
     return "uploadForm";
   }
@@ -160,6 +184,20 @@ public class FileUploadController {
     return "photoGallery";
   }
 
+  /**
+   * Renders the view with all files uploaded to the album.
+   *
+   * @param album the name of album.
+   *
+   * @return name of HTML which handles all uploaded files.
+   * */
+  @GetMapping("/{album}/gallery")
+  public String listAlbumFiles(@PathVariable String album, Model model) throws IOException {
+    logger.info("getting gallery page of album " + album);
+    getAlbumFilesWithDefaultAttributes(album, model);
+    return "photoGallery";
+  }
+
   private void getUploadedFilesWithDefaultAttributes(Model model) {
     logger.info("loading all images from storage");
     model.addAttribute("files", storageService
@@ -170,7 +208,24 @@ public class FileUploadController {
                                     path.getFileName().toString())
                             .build().toString())
             .collect(Collectors.toList()));
+    addDefaultAttributes(model);
+  }
+
+  private void getAlbumFilesWithDefaultAttributes(String album, Model model) {
+    logger.info("loading all images from album " + album);
+    model.addAttribute("files", storageService
+            .album(album)
+            .loadAll()
+            .map(path ->
+                    MvcUriComponentsBuilder
+                            .fromMethodName(FileUploadController.class, "serveAlbumFile",
+                                    album, path.getFileName().toString())
+                            .build().toString())
+            .collect(Collectors.toList()));
+    addDefaultAttributes(model);
+  }
 
+  private void addDefaultAttributes(Model model) {
     model.addAttribute("height", DEFAULT_HEIGHT);
     model.addAttribute("width", DEFAULT_WIDTH);
     model.addAttribute("stylesheet", DEFAULT_STYLESHEET);
@@ -198,6 +253,78 @@ public class FileUploadController {
             .body(file);
   }
 
+  /**
+   * Finds images, which look similar to the image of uploaded file.
+   *
+   * @param filename name of file, which similar images to be found
+   * @param distance maximum number of differing bits of perceptual hashes of similar images
+   *
+   * @return links to similar files ordered from the most similar one.
+   * */
+  @GetMapping("/similar")
+  @ResponseBody
+  public List<String> listSimilarFiles(@RequestParam("filename") String filename,
+                                       @RequestParam(value = "distance",
+                                               defaultValue = DEFAULT_SIMILARITY_DISTANCE) int distance) {
+    logger.info("loading images similar to " + filename);
+    return storageService
+            .loadSimilar(filename, distance)
+            .map(path ->
+                    MvcUriComponentsBuilder
+                            .fromMethodName(FileUploadController.class, "serveFile",
+                                    path.getFileName().toString())
+                            .build().toString())
+            .collect(Collectors.toList());
+  }
+
+  /**
+   * Finds images of the album, which look similar to the image of uploaded file.
+   *
+   * @param album name of album, which the file belongs to
+   * @param filename name of file, which similar images to be found
+   * @param distance maximum number of differing bits of perceptual hashes of similar images
+   *
+   * @return links to similar files ordered from the most similar one.
+   * */
+  @GetMapping("/{album}/similar")
+  @ResponseBody
+  public List<String> listSimilarAlbumFiles(@PathVariable String album,
+                                            @RequestParam("filename") String filename,
+                                            @RequestParam(value = "distance",
+                                                    defaultValue = DEFAULT_SIMILARITY_DISTANCE) int distance) {
+    logger.info("loading images of album " + album + " similar to " + filename);
+    return storageService
+            .album(album)
+            .loadSimilar(filename, distance)
+            .map(path ->
+                    MvcUriComponentsBuilder
+                            .fromMethodName(FileUploadController.class, "serveAlbumFile",
+                                    album, path.getFileName().toString())
+                            .build().toString())
+            .collect(Collectors.toList());
+  }
+
+  /**
+   * Loads file of the album to the client.
+   *
+   * @param album name of album, which the file belongs to
+   * @param filename name of file that need to be loaded
+   *
+   * @return {@link ResponseEntity} which body is set as Resource of file.
+   * */
+  @GetMapping("/{album}/files/{filename:.+}")
+  @ResponseBody
+  public ResponseEntity<Resource> serveAlbumFile(@PathVariable String album,
+                                                 @PathVariable String filename) {
+    logger.info("loading image of album " + album + " as a resource with name " + filename);
+    Resource file = storageService.album(album).loadAsResource(filename);
+    return ResponseEntity
+            .ok()
+            .header(HttpHeaders.CONTENT_DISPOSITION,
+                    "attachment; filename=\"" + file.getFilename() + "\"")
+            .body(file);
+  }
+
   /**
    * Handles request to upload a file to the server.
    *
@@ -217,6 +344,57 @@ public class FileUploadController {
     return "redirect:/photo/gallery";
   }
 
+  /**
+   * Handles request to upload a file to the album.
+   *
+   * @param album the name of album.
+   * @param files Array of files that should be uploaded.
+   *
+   * @return name of HTML which handles all files of the album.
+   * */
+  @PostMapping("/{album}")
+  public String handleAlbumFileUpload(@PathVariable String album,
+                                      @RequestParam("file") MultipartFile[] files,
+                                      RedirectAttributes redirectAttributes) {
+    logger.info("uploading images to album " + album);
+
+    storageService.album(album).store(files);
+    redirectAttributes.addFlashAttribute("message",
+            "The photos has been uploaded");
+
+    return "redirect:/photo/" + album + "/gallery";
+  }
+
+  /**
+   * Streams all uploaded files to the client as a ZIP archive.
+   *
+   * @param response the response, which body the archive is written to.
+   * */
+  @GetMapping("/export")
+  public void exportGallery(HttpServletResponse response) throws IOException {
+    logger.info("exporting gallery");
+    response.setContentType("application/zip");
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"gallery.zip\"");
+    galleryArchiver.exportArchive(response.getOutputStream());
+  }
+
+  /**
+   * Imports all files from the ZIP archive sent as a request body.
+   *
+   * <p>The archive is read directly from the request, so it is never staged on disk.
+   *
+   * @param archive the body of request.
+   *
+   * @return a message with the number of imported files.
+   * */
+  @PostMapping(value = "/import", consumes = "application/zip")
+  @ResponseBody
+  public String importGallery(InputStream archive) throws IOException {
+    logger.info("importing gallery");
+    int imported = galleryArchiver.importArchive(archive);
+    return "The photos has been imported: " + imported;
+  }
+
   /**
    * Redirects to the error page if requested file is not found.
    *
@@ -0,0 +1,118 @@
+package com.github.dmitriylamzin.controller;
+
+import com.github.dmitriylamzin.storage.ReplicatingStorageService;
+import com.github.dmitriylamzin.storage.ReplicationProperties;
+import com.github.dmitriylamzin.storage.StorageFileNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Endpoints, which peers use to replicate changes of their storages to this node.
+ * Requests without the secret shared by all nodes are forbidden.
+ * */
+@RestController
+@RequestMapping("/replication")
+@ConditionalOnProperty(prefix = "replication", name = "enabled", havingValue = "true")
+public class ReplicationController {
+
+  private final ReplicatingStorageService storageService;
+
+  private final byte[] secret;
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  @Autowired
+  public ReplicationController(ReplicatingStorageService storageService, ReplicationProperties properties) {
+    this.storageService = storageService;
+    this.secret = properties.getSecret().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Checks the shared secret before every request is handled.
+   * */
+  @ModelAttribute
+  public void checkSecret(@RequestHeader(value = ReplicatingStorageService.SECRET_HEADER, required = false)
+                                  String requestSecret) {
+    if (requestSecret == null
+            || !MessageDigest.isEqual(secret, requestSecret.getBytes(StandardCharsets.UTF_8))) {
+      throw new SecurityException("Replication request without valid secret");
+    }
+  }
+
+  /**
+   * @param origin the name of node, which changes are replicated.
+   *
+   * @return sequence number of the last change of the node, which has been applied here.
+   * */
+  @GetMapping(value = "/position", produces = MediaType.TEXT_PLAIN_VALUE)
+  public String getPosition(@RequestParam("origin") String origin) {
+    return Long.toString(storageService.getPosition(origin));
+  }
+
+  /**
+   * Applies a change of the peer storage to this node.
+   * */
+  @PostMapping("/changes")
+  public void applyChange(@RequestParam("origin") String origin,
+                          @RequestParam("sequence") long sequence,
+                          @RequestParam("operation") String operation,
+                          @RequestParam(value = "album", required = false) String album,
+                          @RequestParam(value = "filename", required = false) String filename,
+                          @RequestBody(required = false) byte[] content) {
+    logger.debug("applying change " + sequence + " of " + origin);
+    storageService.apply(origin, sequence, operation, album, filename, content);
+  }
+
+  /**
+   * Stores a file of the peer storage, which is sent to this node
+   * instead of changes removed from the change log of the peer.
+   * */
+  @PostMapping("/files")
+  public void applyFile(@RequestParam(value = "album", required = false) String album,
+                        @RequestParam("filename") String filename,
+                        @RequestBody(required = false) byte[] content) {
+    logger.debug("storing replicated file " + filename);
+    storageService.applyFile(album, filename, content);
+  }
+
+  /**
+   * Serves a file from the storage of this node only, without fetching it from peers.
+   *
+   * @return the content of file.
+   * */
+  @GetMapping(value = "/files", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public byte[] getFile(@RequestParam(value = "album", required = false) String album,
+                        @RequestParam("filename") String filename) {
+    logger.debug("serving replicated file " + filename);
+    return storageService.loadLocalContent(album, filename);
+  }
+
+  @ExceptionHandler(SecurityException.class)
+  public ResponseEntity<?> handleSecurityException(SecurityException exception) {
+    logger.warn("forbidden: " + exception.getMessage());
+    return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+  }
+
+  @ExceptionHandler(StorageFileNotFoundException.class)
+  public ResponseEntity<?> handleStorageFileNotFound(StorageFileNotFoundException exception) {
+    logger.debug("file not found: " + exception.getMessage());
+    return ResponseEntity.notFound().build();
+  }
+}
@@ -0,0 +1,140 @@
+package com.github.dmitriylamzin.image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Limits the memory used by concurrent decoding of images.
+ *
+ * <p>Every pixel work reserves the estimated number of bytes from a global budget
+ * before it starts and releases them when it finishes. The estimate is computed
+ * from dimensions in the image header, so nothing is decoded before the reservation.
+ * Work, which does not fit into the whole budget, is rejected at once. Other work
+ * waits until enough memory is released by work in progress, or is rejected
+ * after a timeout. So concurrent decoding slows down instead of exhausting the heap.
+ * */
+public class DecodeGovernor {
+
+  private static final int KILOBYTE = 1024;
+
+  /**
+   * The budget in kilobytes, so budgets above 2 GB fit into permits of semaphore.
+   * */
+  private final Semaphore budget;
+
+  private final int budgetKilobytes;
+
+  private final long timeoutMillis;
+
+  /**
+   * Constructor.
+   *
+   * @param budgetBytes maximum number of bytes used by all pixel work at once.
+   * @param timeoutMillis maximum time to wait for the budget.
+   * */
+  public DecodeGovernor(long budgetBytes, long timeoutMillis) {
+    this.budgetKilobytes = (int) Math.min(Integer.MAX_VALUE, Math.max(1, budgetBytes / KILOBYTE));
+    this.budget = new Semaphore(budgetKilobytes, true);
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Pixel work on a decoded image.
+   * */
+  public interface ImageWork<T> {
+    T apply(BufferedImage image) throws IOException;
+  }
+
+  /**
+   * Work, which needs memory.
+   * */
+  public interface Work<T> {
+    T run() throws IOException;
+  }
+
+  /**
+   * Decodes the PNG image and applies the work to it.
+   *
+   * <p>If the work needs an image of only a given size, the image is decoded
+   * with subsampling, so only every n-th pixel of every n-th row is kept in memory.
+   *
+   * @param file a PNG file.
+   * @param minWidth the minimal width of decoded image needed by the work, 0 for the full size.
+   * @param minHeight the minimal height of decoded image needed by the work, 0 for the full size.
+   * @param work the work to be applied to the decoded image.
+   *
+   * @return the result of work.
+   * */
+  public <T> T decode(Path file, int minWidth, int minHeight, ImageWork<T> work) throws IOException {
+    PngHeader header = PngHeader.read(file);
+    int step = minWidth <= 0 || minHeight <= 0 ? 1 : Math.max(1, Math.min(
+            header.getWidth() / minWidth, header.getHeight() / minHeight));
+    long width = (header.getWidth() + step - 1) / step;
+    long height = (header.getHeight() + step - 1) / step;
+    long decoded = width * height * header.decodedBytesPerPixel();
+    long rowBuffers = 2 * header.rowBytes();
+
+    return withReservation(decoded + rowBuffers, () -> {
+      try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+        Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+        if (readers == null || !readers.hasNext()) {
+          throw new IOException("Unsupported image format: " + file);
+        }
+        ImageReader reader = readers.next();
+        try {
+          reader.setInput(in, true, true);
+          ImageReadParam param = reader.getDefaultReadParam();
+          param.setSourceSubsampling(step, step, 0, 0);
+          return work.apply(reader.read(0, param));
+        } finally {
+          reader.dispose();
+        }
+      }
+    });
+  }
+
+  /**
+   * Runs the work after the number of bytes has been reserved from the budget.
+   *
+   * @param bytes estimated number of bytes needed by the work.
+   * @param work the work to be run.
+   *
+   * @return the result of work.
+   * */
+  public <T> T withReservation(long bytes, Work<T> work) throws IOException {
+    long kilobytes = (bytes + KILOBYTE - 1) / KILOBYTE;
+    if (kilobytes > budgetKilobytes) {
+      throw new DecodeRejectedException("Image needs " + bytes + " bytes, which exceeds the decode budget of "
+              + (long) budgetKilobytes * KILOBYTE + " bytes");
+    }
+    int permits = (int) Math.max(1, kilobytes);
+    try {
+      if (!budget.tryAcquire(permits, timeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new DecodeRejectedException("Timed out waiting for " + bytes + " bytes of the decode budget");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DecodeRejectedException("Interrupted while waiting for the decode budget");
+    }
+    try {
+      return work.run();
+    } finally {
+      budget.release(permits);
+    }
+  }
+
+  /**
+   * @return number of bytes, which are not reserved at the moment.
+   * */
+  public long availableBytes() {
+    return (long) budget.availablePermits() * KILOBYTE;
+  }
+}
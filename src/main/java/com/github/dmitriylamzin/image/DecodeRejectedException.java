@@ -0,0 +1,13 @@
+package com.github.dmitriylamzin.image;
+
+import java.io.IOException;
+
+/**
+ * Thrown when pixel work on an image does not fit into the memory budget.
+ * */
+public class DecodeRejectedException extends IOException {
+
+  public DecodeRejectedException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,83 @@
+package com.github.dmitriylamzin.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Computes difference hashes (dHash) of images.
+ *
+ * <p>The image is reduced to a grid of 9x8 average luminances and every bit
+ * of the hash tells whether luminance grows from a cell to its right neighbour.
+ * Rescaled or slightly edited copies of an image get hashes within a small
+ * Hamming distance of each other.
+ * */
+public final class PerceptualHash {
+
+  private static final int GRID_WIDTH = 9;
+  private static final int GRID_HEIGHT = 8;
+
+  /**
+   * Minimal number of decoded pixels per grid cell in each dimension.
+   * */
+  private static final int PIXELS_PER_CELL = 8;
+
+  /**
+   * The width, which is enough for an image to compute its hash,
+   * larger images may be decoded with subsampling.
+   * */
+  public static final int SAMPLE_WIDTH = GRID_WIDTH * PIXELS_PER_CELL;
+
+  /**
+   * The height, which is enough for an image to compute its hash,
+   * larger images may be decoded with subsampling.
+   * */
+  public static final int SAMPLE_HEIGHT = GRID_HEIGHT * PIXELS_PER_CELL;
+
+  private PerceptualHash() {
+  }
+
+  /**
+   * Computes the hash of decoded image.
+   *
+   * @param image a decoded image.
+   *
+   * @return the hash of image.
+   * */
+  public static long compute(BufferedImage image) {
+    double[][] luminance = new double[GRID_HEIGHT][GRID_WIDTH];
+    int[][] count = new int[GRID_HEIGHT][GRID_WIDTH];
+    int width = image.getWidth();
+    int height = image.getHeight();
+    for (int y = 0; y < height; y++) {
+      int row = y * GRID_HEIGHT / height;
+      for (int x = 0; x < width; x++) {
+        int column = x * GRID_WIDTH / width;
+        int rgb = image.getRGB(x, y);
+        luminance[row][column] += 0.299 * ((rgb >> 16) & 0xff)
+                + 0.587 * ((rgb >> 8) & 0xff)
+                + 0.114 * (rgb & 0xff);
+        count[row][column]++;
+      }
+    }
+    long hash = 0;
+    for (int row = 0; row < GRID_HEIGHT; row++) {
+      for (int column = 0; column < GRID_WIDTH - 1; column++) {
+        hash <<= 1;
+        if (average(luminance, count, row, column) < average(luminance, count, row, column + 1)) {
+          hash |= 1;
+        }
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * @return number of bits, which differ in the hashes.
+   * */
+  public static int distance(long first, long second) {
+    return Long.bitCount(first ^ second);
+  }
+
+  private static double average(double[][] luminance, int[][] count, int row, int column) {
+    return count[row][column] == 0 ? 0 : luminance[row][column] / count[row][column];
+  }
+}
@@ -0,0 +1,110 @@
+package com.github.dmitriylamzin.image;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Image header (IHDR chunk) of PNG file.
+ *
+ * <p>The header is the first chunk of the file, so dimensions of an image
+ * are known after reading a few dozens of bytes, before any pixel is decoded.
+ * */
+public class PngHeader {
+
+  private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+  private static final int HEADER_TYPE = 0x49484452;
+
+  private final int width;
+
+  private final int height;
+
+  private final int bitDepth;
+
+  private final int colorType;
+
+  PngHeader(int width, int height, int bitDepth, int colorType) {
+    this.width = width;
+    this.height = height;
+    this.bitDepth = bitDepth;
+    this.colorType = colorType;
+  }
+
+  /**
+   * Reads the header of PNG file.
+   *
+   * @param file a PNG file.
+   *
+   * @return the header of file.
+   * */
+  public static PngHeader read(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      DataInputStream data = new DataInputStream(in);
+      byte[] signature = new byte[SIGNATURE.length];
+      data.readFully(signature);
+      if (!Arrays.equals(signature, SIGNATURE)) {
+        throw new IOException("Not a PNG file: " + file);
+      }
+      data.readInt();
+      if (data.readInt() != HEADER_TYPE) {
+        throw new IOException("Missing image header: " + file);
+      }
+      int width = data.readInt();
+      int height = data.readInt();
+      int bitDepth = data.readUnsignedByte();
+      int colorType = data.readUnsignedByte();
+      if (width <= 0 || height <= 0) {
+        throw new IOException("Invalid image dimensions: " + file);
+      }
+      return new PngHeader(width, height, bitDepth, colorType);
+    }
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getBitDepth() {
+    return bitDepth;
+  }
+
+  public int getColorType() {
+    return colorType;
+  }
+
+  /**
+   * @return number of bytes per pixel of decoded {@link java.awt.image.BufferedImage}.
+   * */
+  public int decodedBytesPerPixel() {
+    return bitDepth > 8 ? 8 : 4;
+  }
+
+  /**
+   * @return number of bytes of a single scanline of the image.
+   * */
+  public long rowBytes() {
+    int channels;
+    switch (colorType) {
+      case 2:
+        channels = 3;
+        break;
+      case 4:
+        channels = 2;
+        break;
+      case 6:
+        channels = 4;
+        break;
+      default:
+        channels = 1;
+    }
+    return ((long) width * channels * bitDepth + 7) / 8;
+  }
+}
@@ -0,0 +1,403 @@
+package com.github.dmitriylamzin.image;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Lossless recompression of PNG images.
+ *
+ * <p>The optimizer decodes scanlines of the image, filters them with every
+ * standard filter type and with adaptive per-row filtering, compresses each
+ * variant with the strongest deflate level and keeps the smallest one.
+ * Ancillary chunks, which do not affect how pixels are rendered (text, time,
+ * physical size, background, histograms, etc.), are removed. Transparency and
+ * color space chunks are kept.
+ *
+ * <p>The result is decoded again and compared with the original scanlines,
+ * so only a pixel-identical image is ever returned. Interlaced and animated
+ * images are left untouched.
+ * */
+public final class PngOptimizer {
+
+  private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+  /**
+   * Ancillary chunks, which change how pixels are rendered.
+   * */
+  private static final Set<String> KEPT_ANCILLARY_CHUNKS = new HashSet<>(
+          Arrays.asList("tRNS", "gAMA", "cHRM", "sRGB", "iCCP", "sBIT"));
+
+  private static final int FILTER_TYPES = 5;
+
+  /**
+   * Pseudo filter type, which selects the best filter for every row.
+   * */
+  private static final int ADAPTIVE_FILTER = FILTER_TYPES;
+
+  private static final int[] DEFLATE_STRATEGIES = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED};
+
+  private PngOptimizer() {
+  }
+
+  /**
+   * Estimates the memory needed to recompress the image.
+   *
+   * <p>Besides the file and its recompressed version, the optimizer holds
+   * decoded scanlines, a filtered copy of them, and the same two arrays again
+   * while verifying the result.
+   *
+   * @param header the header of image.
+   * @param fileSize the size of PNG file in bytes.
+   *
+   * @return estimated number of bytes.
+   * */
+  public static long workingMemory(PngHeader header, long fileSize) {
+    return 4 * (header.rowBytes() + 1) * header.getHeight() + 3 * fileSize;
+  }
+
+  /**
+   * Recompresses the PNG image.
+   *
+   * @param png the content of PNG file.
+   *
+   * @return the content of smaller pixel-identical PNG file or <code>null</code>
+   *         if the image could not be made smaller.
+   * */
+  public static byte[] optimize(byte[] png) throws IOException {
+    Image image = parse(png);
+    if (image == null) {
+      return null;
+    }
+    byte[] raw = unfilter(image);
+
+    byte[] best = null;
+    for (int filter = 0; filter <= ADAPTIVE_FILTER; filter++) {
+      byte[] filtered = filter(raw, image, filter);
+      for (int strategy : DEFLATE_STRATEGIES) {
+        byte[] compressed = deflate(filtered, strategy);
+        if (best == null || compressed.length < best.length) {
+          best = compressed;
+        }
+      }
+    }
+
+    byte[] optimized = write(image, best);
+    if (optimized.length >= png.length) {
+      return null;
+    }
+    Image written = parse(optimized);
+    if (written == null || !Arrays.equals(raw, unfilter(written))) {
+      throw new IOException("Optimized image differs from the original one");
+    }
+    return optimized;
+  }
+
+  /**
+   * @return parsed image or <code>null</code> if the image is not supported.
+   * */
+  private static Image parse(byte[] png) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(png));
+    byte[] signature = new byte[SIGNATURE.length];
+    in.readFully(signature);
+    if (!Arrays.equals(signature, SIGNATURE)) {
+      throw new IOException("Not a PNG file");
+    }
+    Image image = new Image();
+    ByteArrayOutputStream idat = new ByteArrayOutputStream();
+    boolean end = false;
+    while (!end) {
+      int length = in.readInt();
+      byte[] typeBytes = new byte[4];
+      in.readFully(typeBytes);
+      String type = new String(typeBytes, StandardCharsets.US_ASCII);
+      if (length < 0 || length > in.available()) {
+        throw new IOException("Truncated chunk " + type);
+      }
+      byte[] data = new byte[length];
+      in.readFully(data);
+      if (in.readInt() != (int) crc(typeBytes, data)) {
+        throw new IOException("Checksum mismatch of chunk " + type);
+      }
+      switch (type) {
+        case "IHDR":
+          image.header = data;
+          break;
+        case "IDAT":
+          idat.write(data);
+          break;
+        case "IEND":
+          end = true;
+          break;
+        case "PLTE":
+          (idat.size() == 0 ? image.before : image.after).add(new Chunk(type, data));
+          break;
+        case "acTL":
+          return null;
+        default:
+          if (Character.isUpperCase(type.charAt(0))) {
+            return null;
+          } else if (KEPT_ANCILLARY_CHUNKS.contains(type)) {
+            (idat.size() == 0 ? image.before : image.after).add(new Chunk(type, data));
+          }
+      }
+    }
+    if (image.header == null || image.header.length != 13) {
+      throw new IOException("Missing image header");
+    }
+    DataInputStream header = new DataInputStream(new ByteArrayInputStream(image.header));
+    image.width = header.readInt();
+    image.height = header.readInt();
+    int bitDepth = header.readUnsignedByte();
+    int colorType = header.readUnsignedByte();
+    header.readUnsignedByte();
+    header.readUnsignedByte();
+    int interlace = header.readUnsignedByte();
+    if (interlace != 0) {
+      return null;
+    }
+    int bitsPerPixel = channels(colorType) * bitDepth;
+    long stride = ((long) image.width * bitsPerPixel + 7) / 8;
+    if ((stride + 1) * image.height > Integer.MAX_VALUE) {
+      return null;
+    }
+    image.stride = (int) stride;
+    image.bytesPerPixel = Math.max(1, bitsPerPixel / 8);
+    image.data = idat.toByteArray();
+    return image;
+  }
+
+  private static int channels(int colorType) throws IOException {
+    switch (colorType) {
+      case 0:
+      case 3:
+        return 1;
+      case 2:
+        return 3;
+      case 4:
+        return 2;
+      case 6:
+        return 4;
+      default:
+        throw new IOException("Unknown color type " + colorType);
+    }
+  }
+
+  /**
+   * @return scanlines of the image without filter type bytes.
+   * */
+  private static byte[] unfilter(Image image) throws IOException {
+    byte[] filtered = new byte[(image.stride + 1) * image.height];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(image.data);
+      int inflated = 0;
+      while (inflated < filtered.length && !inflater.finished()) {
+        int count = inflater.inflate(filtered, inflated, filtered.length - inflated);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        inflated += count;
+      }
+      if (inflated != filtered.length) {
+        throw new IOException("Truncated image data");
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupted image data", e);
+    } finally {
+      inflater.end();
+    }
+
+    int stride = image.stride;
+    int bpp = image.bytesPerPixel;
+    byte[] raw = new byte[stride * image.height];
+    for (int y = 0; y < image.height; y++) {
+      int filter = filtered[y * (stride + 1)];
+      int in = y * (stride + 1) + 1;
+      int out = y * stride;
+      for (int x = 0; x < stride; x++) {
+        int left = x >= bpp ? raw[out + x - bpp] & 0xff : 0;
+        int up = y > 0 ? raw[out - stride + x] & 0xff : 0;
+        int upLeft = x >= bpp && y > 0 ? raw[out - stride + x - bpp] & 0xff : 0;
+        int value = filtered[in + x] & 0xff;
+        switch (filter) {
+          case 0:
+            break;
+          case 1:
+            value += left;
+            break;
+          case 2:
+            value += up;
+            break;
+          case 3:
+            value += (left + up) >>> 1;
+            break;
+          case 4:
+            value += paeth(left, up, upLeft);
+            break;
+          default:
+            throw new IOException("Unknown filter type " + filter);
+        }
+        raw[out + x] = (byte) value;
+      }
+    }
+    return raw;
+  }
+
+  /**
+   * @return scanlines of the image prefixed with filter type bytes.
+   * */
+  private static byte[] filter(byte[] raw, Image image, int filterType) {
+    int stride = image.stride;
+    byte[] filtered = new byte[(stride + 1) * image.height];
+    byte[] row = new byte[stride];
+    for (int y = 0; y < image.height; y++) {
+      int offset = y * (stride + 1);
+      if (filterType == ADAPTIVE_FILTER) {
+        long bestSum = Long.MAX_VALUE;
+        for (int type = 0; type < FILTER_TYPES; type++) {
+          filterRow(raw, image, y, type, row);
+          long sum = 0;
+          for (byte value : row) {
+            sum += Math.abs((int) value);
+          }
+          if (sum < bestSum) {
+            bestSum = sum;
+            filtered[offset] = (byte) type;
+            System.arraycopy(row, 0, filtered, offset + 1, stride);
+          }
+        }
+      } else {
+        filterRow(raw, image, y, filterType, row);
+        filtered[offset] = (byte) filterType;
+        System.arraycopy(row, 0, filtered, offset + 1, stride);
+      }
+    }
+    return filtered;
+  }
+
+  private static void filterRow(byte[] raw, Image image, int y, int type, byte[] row) {
+    int stride = image.stride;
+    int bpp = image.bytesPerPixel;
+    int in = y * stride;
+    for (int x = 0; x < stride; x++) {
+      int value = raw[in + x] & 0xff;
+      int left = x >= bpp ? raw[in + x - bpp] & 0xff : 0;
+      int up = y > 0 ? raw[in - stride + x] & 0xff : 0;
+      int upLeft = x >= bpp && y > 0 ? raw[in - stride + x - bpp] & 0xff : 0;
+      switch (type) {
+        case 1:
+          value -= left;
+          break;
+        case 2:
+          value -= up;
+          break;
+        case 3:
+          value -= (left + up) >>> 1;
+          break;
+        case 4:
+          value -= paeth(left, up, upLeft);
+          break;
+        default:
+          break;
+      }
+      row[x] = (byte) value;
+    }
+  }
+
+  private static int paeth(int left, int up, int upLeft) {
+    int estimate = left + up - upLeft;
+    int toLeft = Math.abs(estimate - left);
+    int toUp = Math.abs(estimate - up);
+    int toUpLeft = Math.abs(estimate - upLeft);
+    if (toLeft <= toUp && toLeft <= toUpLeft) {
+      return left;
+    }
+    return toUp <= toUpLeft ? up : upLeft;
+  }
+
+  private static byte[] deflate(byte[] data, int strategy) {
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      deflater.setStrategy(strategy);
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+      byte[] buffer = new byte[64 * 1024];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] write(Image image, byte[] compressed) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressed.length + 1024);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.write(SIGNATURE);
+    writeChunk(out, "IHDR", image.header);
+    for (Chunk chunk : image.before) {
+      writeChunk(out, chunk.type, chunk.data);
+    }
+    writeChunk(out, "IDAT", compressed);
+    for (Chunk chunk : image.after) {
+      writeChunk(out, chunk.type, chunk.data);
+    }
+    writeChunk(out, "IEND", new byte[0]);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    out.writeInt(data.length);
+    out.write(typeBytes);
+    out.write(data);
+    out.writeInt((int) crc(typeBytes, data));
+  }
+
+  private static long crc(byte[] type, byte[] data) {
+    CRC32 crc = new CRC32();
+    crc.update(type);
+    crc.update(data);
+    return crc.getValue();
+  }
+
+  /**
+   * Parsed structure of PNG file.
+   * */
+  private static class Image {
+    private byte[] header;
+    private int width;
+    private int height;
+    private int stride;
+    private int bytesPerPixel;
+    private byte[] data;
+    private final List<Chunk> before = new ArrayList<>();
+    private final List<Chunk> after = new ArrayList<>();
+  }
+
+  private static class Chunk {
+    private final String type;
+    private final byte[] data;
+
+    private Chunk(String type, byte[] data) {
+      this.type = type;
+      this.data = data;
+    }
+  }
+}
@@ -0,0 +1,340 @@
+package com.github.dmitriylamzin.image;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of 64-bit perceptual hashes, which finds hashes
+ * within a Hamming distance of a query.
+ *
+ * <p>The index uses multi-index hashing: every hash is split into four
+ * 16-bit chunks and each chunk is put into its own table of buckets.
+ * If two hashes differ in at most <code>d</code> bits, at least one of their
+ * chunks differs in at most <code>d / 4</code> bits, so a query probes only
+ * buckets of chunk values within that small distance and checks the full
+ * distance of the found candidates. With the distance limited to
+ * {@link #MAX_DISTANCE} a query probes at most 548 buckets regardless
+ * of the number of indexed hashes.
+ *
+ * <p>The tables of buckets take a few megabytes, so they are built only when
+ * the index grows to {@link #TABLES_THRESHOLD} hashes. A smaller index is
+ * searched by comparing the query with every hash, which is as fast for a few
+ * thousand hashes, and takes memory proportional to the number of hashes.
+ *
+ * <p>The index is thread safe.
+ * */
+public class SimilarityIndex {
+
+  /**
+   * Maximum distance supported by {@link #search(long, int)}.
+   * */
+  public static final int MAX_DISTANCE = 11;
+
+  private static final int CHUNKS = 4;
+  private static final int CHUNK_BITS = 16;
+  private static final int BUCKETS = 1 << CHUNK_BITS;
+
+  /**
+   * Number of hashes, from which the tables of buckets are built.
+   * */
+  static final int TABLES_THRESHOLD = 4096;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final Map<String, Integer> ids = new HashMap<>();
+
+  private String[] names = new String[INITIAL_CAPACITY];
+
+  private long[] hashes = new long[INITIAL_CAPACITY];
+
+  /**
+   * Ids of removed entries, which may be reused.
+   * */
+  private int[] freeIds = new int[INITIAL_CAPACITY];
+
+  private int freeCount;
+
+  private int nextId;
+
+  /**
+   * Tables of buckets or <code>null</code> while the index is small.
+   * */
+  private int[][][] buckets;
+
+  private int[][] bucketSizes;
+
+  /**
+   * Adds a named hash to the index, replacing the previous hash with the same name.
+   * */
+  public void put(String name, long hash) {
+    lock.writeLock().lock();
+    try {
+      removeEntry(name);
+      int id = allocateId();
+      names[id] = name;
+      hashes[id] = hash;
+      ids.put(name, id);
+      if (buckets != null) {
+        addToBuckets(id);
+      } else if (ids.size() >= TABLES_THRESHOLD) {
+        buildTables();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes a named hash from the index if it exists.
+   * */
+  public void remove(String name) {
+    lock.writeLock().lock();
+    try {
+      removeEntry(name);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes all hashes from the index.
+   * */
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      ids.clear();
+      names = new String[INITIAL_CAPACITY];
+      hashes = new long[INITIAL_CAPACITY];
+      freeIds = new int[INITIAL_CAPACITY];
+      freeCount = 0;
+      nextId = 0;
+      buckets = null;
+      bucketSizes = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the hash with the name or <code>null</code> if it is not indexed.
+   * */
+  public Long get(String name) {
+    lock.readLock().lock();
+    try {
+      Integer id = ids.get(name);
+      return id == null ? null : hashes[id];
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return number of indexed hashes.
+   * */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return ids.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Finds names of all hashes within the distance of the hash.
+   *
+   * @param hash the hash to search for.
+   * @param maxDistance maximum number of differing bits, not greater than {@link #MAX_DISTANCE}.
+   *
+   * @return names of found hashes ordered by distance.
+   * */
+  public List<String> search(long hash, int maxDistance) {
+    checkDistance(maxDistance);
+    lock.readLock().lock();
+    try {
+      return find(hash, maxDistance);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Adds a named hash to the index unless the index already holds a hash within the distance.
+   * The search and the insertion are done under one lock, so of two concurrently added
+   * similar hashes only one is added.
+   *
+   * @param name name of the hash.
+   * @param hash the hash to add.
+   * @param maxDistance maximum number of differing bits, not greater than {@link #MAX_DISTANCE}.
+   *
+   * @return names of found hashes ordered by distance, empty if the hash has been added.
+   * */
+  public List<String> putUnlessSimilar(String name, long hash, int maxDistance) {
+    checkDistance(maxDistance);
+    lock.writeLock().lock();
+    try {
+      List<String> similar = find(hash, maxDistance);
+      if (similar.isEmpty()) {
+        put(name, hash);
+      }
+      return similar;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static void checkDistance(int maxDistance) {
+    if (maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+      throw new IllegalArgumentException("Distance should be between 0 and " + MAX_DISTANCE
+              + ": " + maxDistance);
+    }
+  }
+
+  private List<String> find(long hash, int maxDistance) {
+    int chunkDistance = maxDistance / CHUNKS;
+    List<long[]> found = new ArrayList<>();
+    if (buckets == null) {
+      for (int id = 0; id < nextId; id++) {
+        int distance = PerceptualHash.distance(hash, hashes[id]);
+        if (names[id] != null && distance <= maxDistance) {
+          found.add(new long[] {distance, id});
+        }
+      }
+    } else {
+      for (int chunk = 0; chunk < CHUNKS; chunk++) {
+        for (int value : neighbours(chunk(hash, chunk), chunkDistance)) {
+          int[] bucket = buckets[chunk][value];
+          for (int i = 0; i < bucketSizes[chunk][value]; i++) {
+            int id = bucket[i];
+            int distance = PerceptualHash.distance(hash, hashes[id]);
+            if (distance <= maxDistance && !foundInPreviousChunk(hash, hashes[id], chunk, chunkDistance)) {
+              found.add(new long[] {distance, id});
+            }
+          }
+        }
+      }
+    }
+    found.sort(Comparator.<long[]>comparingLong(entry -> entry[0])
+            .thenComparing(entry -> names[(int) entry[1]]));
+    List<String> result = new ArrayList<>(found.size());
+    for (long[] entry : found) {
+      result.add(names[(int) entry[1]]);
+    }
+    return result;
+  }
+
+  /**
+   * A candidate is found in every chunk, which is within the chunk distance,
+   * so it is reported only for the first such chunk.
+   * */
+  private static boolean foundInPreviousChunk(long hash, long candidate, int chunk, int chunkDistance) {
+    for (int previous = 0; previous < chunk; previous++) {
+      if (Integer.bitCount(chunk(hash, previous) ^ chunk(candidate, previous)) <= chunkDistance) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return all 16-bit values within the distance of the value.
+   * */
+  private static int[] neighbours(int value, int distance) {
+    List<Integer> result = new ArrayList<>();
+    collectNeighbours(value, distance, 0, result);
+    int[] neighbours = new int[result.size()];
+    for (int i = 0; i < neighbours.length; i++) {
+      neighbours[i] = result.get(i);
+    }
+    return neighbours;
+  }
+
+  private static void collectNeighbours(int value, int distance, int fromBit, List<Integer> result) {
+    result.add(value);
+    if (distance == 0) {
+      return;
+    }
+    for (int bit = fromBit; bit < CHUNK_BITS; bit++) {
+      collectNeighbours(value ^ (1 << bit), distance - 1, bit + 1, result);
+    }
+  }
+
+  private static int chunk(long hash, int chunk) {
+    return (int) (hash >>> (chunk * CHUNK_BITS)) & (BUCKETS - 1);
+  }
+
+  private void removeEntry(String name) {
+    Integer id = ids.remove(name);
+    if (id == null) {
+      return;
+    }
+    for (int chunk = 0; buckets != null && chunk < CHUNKS; chunk++) {
+      removeFromBucket(chunk, chunk(hashes[id], chunk), id);
+    }
+    names[id] = null;
+    if (freeCount == freeIds.length) {
+      freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+    }
+    freeIds[freeCount++] = id;
+  }
+
+  private int allocateId() {
+    if (freeCount > 0) {
+      return freeIds[--freeCount];
+    }
+    if (nextId == names.length) {
+      names = Arrays.copyOf(names, nextId * 2);
+      hashes = Arrays.copyOf(hashes, nextId * 2);
+    }
+    return nextId++;
+  }
+
+  private void buildTables() {
+    buckets = new int[CHUNKS][BUCKETS][];
+    bucketSizes = new int[CHUNKS][BUCKETS];
+    for (int id = 0; id < nextId; id++) {
+      if (names[id] != null) {
+        addToBuckets(id);
+      }
+    }
+  }
+
+  private void addToBuckets(int id) {
+    for (int chunk = 0; chunk < CHUNKS; chunk++) {
+      addToBucket(chunk, chunk(hashes[id], chunk), id);
+    }
+  }
+
+  private void addToBucket(int chunk, int value, int id) {
+    int[] bucket = buckets[chunk][value];
+    int size = bucketSizes[chunk][value];
+    if (bucket == null) {
+      bucket = new int[2];
+    } else if (size == bucket.length) {
+      bucket = Arrays.copyOf(bucket, size * 2);
+    }
+    bucket[size] = id;
+    buckets[chunk][value] = bucket;
+    bucketSizes[chunk][value] = size + 1;
+  }
+
+  private void removeFromBucket(int chunk, int value, int id) {
+    int[] bucket = buckets[chunk][value];
+    int size = bucketSizes[chunk][value];
+    for (int i = 0; i < size; i++) {
+      if (bucket[i] == id) {
+        bucket[i] = bucket[size - 1];
+        bucketSizes[chunk][value] = size - 1;
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.github.dmitriylamzin.storage;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * {@link MultipartFile} over the content of an archive entry.
+ *
+ * <p>Lets entries of an imported archive pass the same validation
+ * as files uploaded by client.
+ * */
+class ArchiveEntryFile implements MultipartFile {
+
+  private final String filename;
+
+  private final byte[] content;
+
+  ArchiveEntryFile(String filename, byte[] content) {
+    this.filename = filename;
+    this.content = content;
+  }
+
+  @Override
+  public String getName() {
+    return "file";
+  }
+
+  @Override
+  public String getOriginalFilename() {
+    return filename;
+  }
+
+  @Override
+  public String getContentType() {
+    return "image/png";
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return content.length == 0;
+  }
+
+  @Override
+  public long getSize() {
+    return content.length;
+  }
+
+  @Override
+  public byte[] getBytes() {
+    return content;
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return new ByteArrayInputStream(content);
+  }
+
+  @Override
+  public void transferTo(File dest) throws IOException {
+    Files.write(dest.toPath(), content);
+  }
+}
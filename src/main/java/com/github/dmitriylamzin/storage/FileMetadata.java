@@ -0,0 +1,76 @@
+package com.github.dmitriylamzin.storage;
+
+/**
+ * Integrity information recorded for a stored file.
+ * */
+public class FileMetadata {
+
+  /**
+   * CRC32 checksum of the file content.
+   * */
+  private final long checksum;
+
+  /**
+   * Size of the file content in bytes.
+   * */
+  private final long size;
+
+  /**
+   * Perceptual hash of the image or <code>null</code> if it could not be computed.
+   * */
+  private final Long perceptualHash;
+
+  /**
+   * Metadata of the content, which is being replaced by this one, or <code>null</code>.
+   * */
+  private final FileMetadata replaced;
+
+  public FileMetadata(long checksum, long size) {
+    this(checksum, size, null);
+  }
+
+  public FileMetadata(long checksum, long size, Long perceptualHash) {
+    this(checksum, size, perceptualHash, null);
+  }
+
+  /**
+   * Constructor.
+   * */
+  public FileMetadata(long checksum, long size, Long perceptualHash, FileMetadata replaced) {
+    this.checksum = checksum;
+    this.size = size;
+    this.perceptualHash = perceptualHash;
+    this.replaced = replaced;
+  }
+
+  /**
+   * @return whether the actual content of file is the recorded one or the one, which is being replaced.
+   * */
+  public boolean matches(FileMetadata actual) {
+    return actual.size == size && actual.checksum == checksum
+            || replaced != null && replaced.matches(actual);
+  }
+
+  /**
+   * @return whether the actual size of file is the recorded one or the one, which is being replaced.
+   * */
+  public boolean matchesSize(long actualSize) {
+    return actualSize == size || replaced != null && replaced.matchesSize(actualSize);
+  }
+
+  public long getChecksum() {
+    return checksum;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public Long getPerceptualHash() {
+    return perceptualHash;
+  }
+
+  public FileMetadata getReplaced() {
+    return replaced;
+  }
+}
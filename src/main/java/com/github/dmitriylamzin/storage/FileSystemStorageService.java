@@ -1,7 +1,13 @@
 package com.github.dmitriylamzin.storage;
 
+import com.github.dmitriylamzin.image.DecodeGovernor;
+import com.github.dmitriylamzin.image.PerceptualHash;
+import com.github.dmitriylamzin.image.PngHeader;
+import com.github.dmitriylamzin.image.PngOptimizer;
+import com.github.dmitriylamzin.image.SimilarityIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
@@ -9,12 +15,33 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.FileSystemUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 /**
  * Implementation of {@link StorageService} interface.
@@ -22,7 +49,31 @@ import java.util.stream.Stream;
  * <p>This implementation works with file system.
  * */
 @Service
-public class FileSystemStorageService implements StorageService {
+public class FileSystemStorageService implements StorageService, DisposableBean {
+
+  /**
+   * The name of directory, where corrupted files are moved to.
+   * */
+  static final String QUARANTINE_DIRECTORY = ".quarantine";
+
+  /**
+   * The name of directory, where albums are stored.
+   * */
+  static final String ALBUMS_DIRECTORY = "albums";
+
+  private static final Pattern ALBUM_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+  /**
+   * Maximum number of files waiting for recompression, the others are not recompressed.
+   * */
+  private static final int OPTIMIZE_QUEUE_SIZE = 1000;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Number of times a file is read by {@link #verify(String)} if it is replaced while being read.
+   * */
+  private static final int VERIFY_ATTEMPTS = 3;
 
   private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -31,24 +82,198 @@ public class FileSystemStorageService implements StorageService {
    * */
   private final Path rootLocation;
 
+  private final StorageProperties properties;
+
+  /**
+   * Whether this storage is an album of another storage.
+   * */
+  private final boolean album;
+
+  /**
+   * The storage, which this album belongs to, or <code>null</code> if this storage is not an album.
+   * */
+  private final FileSystemStorageService parent;
+
+  /**
+   * Whether this album is kept in the albums of its parent. An album, which does not exist
+   * when it is requested, is not kept, so reads of unknown albums do not consume memory.
+   * */
+  private final boolean registered;
+
+  /**
+   * Maximum number of bytes in this storage.
+   * */
+  private final long quota;
+
+  /**
+   * Names and sizes of stored files.
+   * */
+  private final StorageIndex index;
+
+  /**
+   * Perceptual hashes of stored images.
+   * */
+  private final SimilarityIndex similarityIndex = new SimilarityIndex();
+
+  private volatile boolean similarityIndexLoaded;
+
+  /**
+   * Whether a file similar to already stored one is rejected.
+   * */
+  private final boolean rejectDuplicates;
+
+  /**
+   * Maximum distance of perceptual hashes of duplicates.
+   * */
+  private final int duplicateDistance;
+
+  /**
+   * Background pool, which recompresses stored files, or <code>null</code> if it is disabled.
+   * The pool is shared by the storage and its albums.
+   * */
+  private final ExecutorService optimizer;
+
+  /**
+   * Limits memory used by decoding of stored images.
+   * The governor is shared by the storage and its albums.
+   * */
+  private final DecodeGovernor decodeGovernor;
+
+  /**
+   * Guards replacing of stored files by their recompressed versions.
+   * */
+  private final Object fileLock = new Object();
+
+  /**
+   * Albums of this storage, which exist and have been requested.
+   * */
+  private final ConcurrentMap<String, FileSystemStorageService> albums = new ConcurrentHashMap<>();
+
+  /**
+   * Whether the size of file is checked on every load.
+   * */
+  private final boolean verifyOnLoad;
+
+  /**
+   * Sidecar storage of checksums of stored files.
+   * */
+  private final MetadataStore metadataStore;
+
   @Autowired
   public FileSystemStorageService(StorageProperties properties) {
-    this.rootLocation = Paths.get(properties.getLocation());
+    this(properties, properties.isOptimizePng() ? createOptimizer(properties.getOptimizeThreads()) : null);
+  }
+
+  /**
+   * Constructor, which recompresses stored files with the executor or does not recompress them
+   * if it is <code>null</code>.
+   * */
+  FileSystemStorageService(StorageProperties properties, ExecutorService optimizer) {
+    this(Paths.get(properties.getLocation()), properties, null, true, optimizer,
+            new DecodeGovernor(properties.getDecodeMemoryBudget(), properties.getDecodeTimeout()));
+  }
+
+  private FileSystemStorageService(Path rootLocation, StorageProperties properties,
+                                   FileSystemStorageService parent, boolean registered,
+                                   ExecutorService optimizer, DecodeGovernor decodeGovernor) {
+    this.rootLocation = rootLocation;
+    this.properties = properties;
+    this.album = parent != null;
+    this.parent = parent;
+    this.registered = registered;
+    this.quota = properties.getAlbumQuota();
+    this.verifyOnLoad = properties.isVerifyOnLoad();
+    this.rejectDuplicates = properties.isRejectDuplicates();
+    this.duplicateDistance = Math.max(0, Math.min(properties.getDuplicateDistance(),
+            SimilarityIndex.MAX_DISTANCE));
+    if (parent == null && duplicateDistance != properties.getDuplicateDistance()) {
+      logger.warn("Duplicate distance " + properties.getDuplicateDistance()
+              + " is out of range, using " + duplicateDistance);
+    }
+    this.optimizer = optimizer;
+    this.decodeGovernor = decodeGovernor;
+    this.metadataStore = new MetadataStore(rootLocation);
+    this.index = new StorageIndex(rootLocation);
   }
 
   @Override
   public void store(MultipartFile file) {
+    if (!registered) {
+      parent.registerAlbum(rootLocation.getFileName().toString()).store(file);
+      return;
+    }
     logger.info("Storing file: " + file.getOriginalFilename());
     try {
       if (file.isEmpty()) {
         logger.debug("File is empty: " + file.getOriginalFilename());
-        throw new StorageException("Failed to store empty file " + file.getOriginalFilename());
+        throw new StorageFileRejectedException("Failed to store empty file " + file.getOriginalFilename());
       } else if (!file.getOriginalFilename().endsWith(".png")) {
         logger.debug("File extension is not .png: " + file.getOriginalFilename());
-        throw new StorageException("Failed to store not png file " + file.getOriginalFilename());
+        throw new StorageFileRejectedException("Failed to store not png file " + file.getOriginalFilename());
+      }
+      Path target = this.rootLocation.resolve(file.getOriginalFilename());
+      index.ensureLoaded();
+      if (!index.claim(file.getOriginalFilename())) {
+        throw new FileAlreadyExistsException(target.toString());
+      }
+      try {
+        if (Files.exists(target)) {
+          throw new FileAlreadyExistsException(target.toString());
+        }
+        if (!index.reserve(file.getSize(), quota)) {
+          logger.debug("Quota is exceeded: " + file.getOriginalFilename());
+          throw new StorageFileRejectedException("Failed to store file " + file.getOriginalFilename()
+                  + ", quota is exceeded");
+        }
+        boolean stored = false;
+        boolean hashed = false;
+        Path temp = null;
+        try {
+          if (album) {
+            Files.createDirectories(rootLocation);
+          }
+          temp = Files.createTempFile(this.rootLocation, ".upload-", ".tmp");
+          FileMetadata copied = copyWithChecksum(file.getInputStream(), temp);
+          Long perceptualHash = perceptualHash(temp, file.getOriginalFilename());
+          if (rejectDuplicates && perceptualHash != null) {
+            // the hash is reserved before the file is moved, so a concurrent similar upload sees it
+            List<String> duplicates = similarityIndex()
+                    .putUnlessSimilar(file.getOriginalFilename(), perceptualHash, duplicateDistance);
+            if (!duplicates.isEmpty()) {
+              logger.debug("File is a duplicate of " + duplicates.get(0) + ": " + file.getOriginalFilename());
+              throw new StorageFileRejectedException("Failed to store file " + file.getOriginalFilename()
+                      + ", it is similar to " + duplicates.get(0));
+            }
+            hashed = true;
+          }
+          FileMetadata metadata = new FileMetadata(copied.getChecksum(), copied.getSize(), perceptualHash);
+          metadataStore.write(file.getOriginalFilename(), metadata);
+          Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+          index.add(file.getOriginalFilename(), file.getSize(), metadata.getSize());
+          if (perceptualHash != null && !hashed) {
+            similarityIndex().put(file.getOriginalFilename(), perceptualHash);
+          }
+          if (optimizer != null) {
+            String filename = file.getOriginalFilename();
+            optimizer.execute(() -> optimize(filename, metadata.getChecksum()));
+          }
+          stored = true;
+          logger.debug("File has been stored with checksum " + metadata.getChecksum()
+                  + ": " + file.getOriginalFilename());
+        } finally {
+          if (temp != null) {
+            Files.deleteIfExists(temp);
+          }
+          if (!stored) {
+            index.release(file.getSize());
+            if (hashed) {
+              similarityIndex.remove(file.getOriginalFilename());
+            }
+          }
+        }
+      } finally {
+        index.unclaim(file.getOriginalFilename());
       }
-      Files.copy(file.getInputStream(),
-              this.rootLocation.resolve(file.getOriginalFilename()));
     } catch (IOException e) {
       logger.error("IOException has occurred: " + e.getMessage());
       throw new StorageException("Failed to store file " + file.getOriginalFilename(), e);
@@ -66,11 +291,42 @@ public class FileSystemStorageService implements StorageService {
 
   @Override
   public Stream<Path> loadAll() {
+    FileSystemStorageService registeredAlbum = registeredAlbum();
+    if (registeredAlbum != null) {
+      return registeredAlbum.loadAll();
+    }
     logger.info("Loading all files form storage");
     try {
-      return Files.walk(this.rootLocation, 1)
-              .filter(path -> !path.equals(this.rootLocation))
-              .map(path -> this.rootLocation.relativize(path));
+      index.ensureLoaded();
+      return index.names().map(Paths::get);
+    } catch (IOException e) {
+      logger.error("IOException has occurred: " + e.getMessage());
+      throw new StorageException("Failed to read stored files", e);
+    }
+  }
+
+  @Override
+  public Stream<Path> loadSimilar(String filename, int maxDistance) {
+    FileSystemStorageService registeredAlbum = registeredAlbum();
+    if (registeredAlbum != null) {
+      return registeredAlbum.loadSimilar(filename, maxDistance);
+    }
+    logger.info("Loading files similar to " + filename);
+    try {
+      SimilarityIndex similarity = similarityIndex();
+      Long perceptualHash = similarity.get(filename);
+      if (perceptualHash == null) {
+        if (!index.contains(filename)) {
+          logger.debug("File does not exist: " + filename);
+          throw new StorageFileNotFoundException("Could not read file: " + filename);
+        }
+        logger.debug("No perceptual hash has been computed for file: " + filename);
+        return Stream.empty();
+      }
+      int distance = Math.max(0, Math.min(maxDistance, SimilarityIndex.MAX_DISTANCE));
+      return similarity.search(perceptualHash, distance).stream()
+              .filter(similar -> !similar.equals(filename))
+              .map(Paths::get);
     } catch (IOException e) {
       logger.error("IOException has occurred: " + e.getMessage());
       throw new StorageException("Failed to read stored files", e);
@@ -90,6 +346,16 @@ public class FileSystemStorageService implements StorageService {
       Resource resource = new UrlResource(file.toUri());
       if (resource.exists() || resource.isReadable()) {
         logger.debug("Resource has been found: " + filename);
+        if (verifyOnLoad && !hasRecordedSize(filename)) {
+          synchronized (fileLock) {
+            // the optimizer may have replaced the file since its size was read
+            if (!hasRecordedSize(filename)) {
+              logger.warn("Moving file to quarantine: " + filename);
+              moveToQuarantine(filename);
+              throw new StorageException("Stored file is corrupted: " + filename);
+            }
+          }
+        }
         return resource;
       } else {
         logger.debug("resource does not exist or does not readable: " + filename);
@@ -101,20 +367,407 @@ public class FileSystemStorageService implements StorageService {
     }
   }
 
+  @Override
+  public FileMetadata loadMetadata(String filename) {
+    try {
+      FileMetadata recorded = metadataStore.read(filename);
+      if (recorded == null) {
+        logger.debug("Computing checksum of file: " + filename);
+        recorded = computeMetadata(load(filename));
+        metadataStore.write(filename, recorded);
+      }
+      return recorded;
+    } catch (NoSuchFileException e) {
+      logger.debug("File does not exist: " + filename);
+      throw new StorageFileNotFoundException("Could not read file: " + filename, e);
+    } catch (IOException e) {
+      logger.error("IOException has occurred: " + e.getMessage());
+      throw new StorageException("Failed to read metadata of file " + filename, e);
+    }
+  }
+
+  @Override
+  public StoredFile open(String filename) {
+    try {
+      FileMetadata metadata;
+      FileChannel channel;
+      // the optimizer replaces the file and its metadata under the same lock,
+      // and the opened file keeps the content, which the metadata was recorded for
+      synchronized (fileLock) {
+        metadata = metadataStore.read(filename);
+        channel = FileChannel.open(load(filename), StandardOpenOption.READ);
+      }
+      if (metadata == null) {
+        // the optimizer never replaces a file without metadata,
+        // so its checksum is computed without the lock
+        try {
+          metadata = loadMetadata(filename);
+        } catch (RuntimeException e) {
+          channel.close();
+          throw e;
+        }
+      }
+      return new StoredFile(metadata, channel);
+    } catch (NoSuchFileException e) {
+      logger.debug("File does not exist: " + filename);
+      throw new StorageFileNotFoundException("Could not read file: " + filename, e);
+    } catch (IOException e) {
+      logger.error("IOException has occurred: " + e.getMessage());
+      throw new StorageException("Failed to open file " + filename, e);
+    }
+  }
+
+  @Override
+  public boolean verify(String filename) {
+    logger.debug("Verifying file: " + filename);
+    try {
+      Path file = load(filename);
+      for (int attempt = 0; attempt < VERIFY_ATTEMPTS; attempt++) {
+        FileMetadata recorded;
+        List<Object> version;
+        // the optimizer replaces the file and its metadata under the same lock,
+        // so the metadata describes the version of file read together with it
+        synchronized (fileLock) {
+          recorded = metadataStore.read(filename);
+          if (recorded == null) {
+            logger.debug("No checksum has been recorded for file: " + filename);
+            return true;
+          }
+          version = fileVersion(file);
+        }
+        // the checksum is computed without the lock, so uploads and downloads are not blocked
+        // while the whole file is read, and it is used only if the file has not been replaced
+        FileMetadata actual = computeMetadata(file);
+        if (version.equals(fileVersion(file))) {
+          boolean valid = recorded.matches(actual);
+          if (!valid) {
+            logger.warn("Checksum mismatch of file: " + filename);
+          }
+          return valid;
+        }
+        logger.debug("File has been replaced while it was verified: " + filename);
+      }
+      throw new StorageException("Failed to verify file " + filename + ", it is being replaced");
+    } catch (IOException e) {
+      logger.error("IOException has occurred: " + e.getMessage());
+      throw new StorageException("Failed to verify file " + filename, e);
+    }
+  }
+
+  @Override
+  public void quarantine(String filename) {
+    FileSystemStorageService registeredAlbum = registeredAlbum();
+    if (registeredAlbum != null) {
+      registeredAlbum.quarantine(filename);
+      return;
+    }
+    logger.warn("Moving file to quarantine: " + filename);
+    synchronized (fileLock) {
+      moveToQuarantine(filename);
+    }
+  }
+
+  private void moveToQuarantine(String filename) {
+    try {
+      Path quarantineLocation = rootLocation.resolve(QUARANTINE_DIRECTORY);
+      Files.createDirectories(quarantineLocation);
+      Files.move(load(filename), quarantineLocation.resolve(filename),
+              StandardCopyOption.REPLACE_EXISTING);
+      index.remove(filename);
+      similarityIndex.remove(filename);
+      metadataStore.delete(filename);
+    } catch (IOException e) {
+      logger.error("IOException has occurred: " + e.getMessage());
+      throw new StorageException("Failed to quarantine file " + filename, e);
+    }
+  }
+
   @Override
   public void deleteAll() {
+    FileSystemStorageService registeredAlbum = registeredAlbum();
+    if (registeredAlbum != null) {
+      registeredAlbum.deleteAll();
+      return;
+    }
     logger.info("Deleting all files from storage");
-    FileSystemUtils.deleteRecursively(rootLocation.toFile());
+    if (album) {
+      FileSystemUtils.deleteRecursively(rootLocation.toFile());
+    } else {
+      // albums are kept, they are deleted only through their own storages
+      try (Stream<Path> entries = Files.list(rootLocation)) {
+        entries.filter(entry -> !entry.getFileName().toString().equals(ALBUMS_DIRECTORY))
+                .forEach(entry -> FileSystemUtils.deleteRecursively(entry.toFile()));
+      } catch (NoSuchFileException e) {
+        logger.debug("Storage does not exist: " + rootLocation);
+      } catch (IOException e) {
+        logger.error("IOException has occurred: " + e.getMessage());
+        throw new StorageException("Failed to delete files", e);
+      }
+    }
+    clearIndexes();
+  }
+
+  @Override
+  public void deleteAlbums() {
+    if (album) {
+      throw new StorageException("Albums can not be nested");
+    }
+    logger.info("Deleting all albums from storage");
+    FileSystemUtils.deleteRecursively(rootLocation.resolve(ALBUMS_DIRECTORY).toFile());
+    for (FileSystemStorageService albumStorage : albums.values()) {
+      albumStorage.clearIndexes();
+    }
+    albums.clear();
+  }
+
+  @Override
+  public StorageService album(String name) {
+    if (album) {
+      throw new StorageException("Albums can not be nested: " + name);
+    } else if (name == null || !ALBUM_NAME.matcher(name).matches()) {
+      logger.debug("Album name is invalid: " + name);
+      throw new StorageException("Invalid album name " + name);
+    }
+    FileSystemStorageService registeredAlbum = albums.get(name);
+    if (registeredAlbum != null) {
+      return registeredAlbum;
+    }
+    Path albumLocation = rootLocation.resolve(ALBUMS_DIRECTORY).resolve(name);
+    if (!Files.isDirectory(albumLocation)) {
+      // files stored to this album are passed to the registered one
+      return new FileSystemStorageService(albumLocation, properties, this, false, optimizer, decodeGovernor);
+    }
+    return registerAlbum(name);
+  }
+
+  /**
+   * @return the registered album, which has been created after this unregistered view
+   *         of it was requested, or <code>null</code> if there is no such album.
+   * */
+  private FileSystemStorageService registeredAlbum() {
+    return registered ? null : parent.albums.get(rootLocation.getFileName().toString());
+  }
+
+  private FileSystemStorageService registerAlbum(String name) {
+    return albums.computeIfAbsent(name, albumName -> new FileSystemStorageService(
+            rootLocation.resolve(ALBUMS_DIRECTORY).resolve(albumName), properties, this, true, optimizer,
+            decodeGovernor));
+  }
+
+  @Override
+  public Stream<String> loadAlbums() {
+    logger.info("Loading all albums from storage");
+    Path albumsLocation = rootLocation.resolve(ALBUMS_DIRECTORY);
+    if (album || !Files.isDirectory(albumsLocation)) {
+      return Stream.empty();
+    }
+    try (Stream<Path> paths = Files.list(albumsLocation)) {
+      return paths
+              .filter(Files::isDirectory)
+              .map(path -> path.getFileName().toString())
+              .sorted()
+              .collect(Collectors.toList())
+              .stream();
+    } catch (IOException e) {
+      logger.error("IOException has occurred: " + e.getMessage());
+      throw new StorageException("Failed to read albums", e);
+    }
   }
 
   @Override
   public void init() {
     logger.info("Initializing storage");
     try {
-      Files.createDirectory(rootLocation);
+      Files.createDirectories(rootLocation);
     } catch (IOException e) {
       logger.error("IOException has occurred: " + e.getMessage());
       throw new StorageException("Could not initialize storage", e);
     }
   }
+
+  @Override
+  public void destroy() {
+    if (optimizer != null && !album) {
+      optimizer.shutdownNow();
+    }
+  }
+
+  /**
+   * Creates a pool of low priority daemon threads, which drops files
+   * when too many of them are waiting for recompression.
+   * */
+  private static ExecutorService createOptimizer(int threads) {
+    AtomicInteger counter = new AtomicInteger();
+    int poolSize = Math.max(1, threads);
+    return new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(OPTIMIZE_QUEUE_SIZE),
+            runnable -> {
+              Thread thread = new Thread(runnable, "png-optimizer-" + counter.incrementAndGet());
+              thread.setDaemon(true);
+              thread.setPriority(Thread.MIN_PRIORITY);
+              return thread;
+            },
+            new ThreadPoolExecutor.DiscardPolicy());
+  }
+
+  /**
+   * Recompresses the stored file and replaces it if the result is smaller.
+   *
+   * @param filename a name of stored file.
+   * @param checksum the checksum of file when it was stored. The file is not replaced
+   *                 if its content has changed since then.
+   * */
+  private void optimize(String filename, long checksum) {
+    try {
+      Path file = load(filename);
+      long workingMemory = PngOptimizer.workingMemory(PngHeader.read(file), Files.size(file));
+      decodeGovernor.withReservation(workingMemory, () -> {
+        List<Object> version = fileVersion(file);
+        byte[] content = Files.readAllBytes(file);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if (crc.getValue() != checksum) {
+          logger.debug("File has been changed before recompression: " + filename);
+          return null;
+        }
+        byte[] optimized = PngOptimizer.optimize(content);
+        if (optimized == null) {
+          logger.debug("File can not be recompressed to a smaller one: " + filename);
+          return null;
+        }
+        replaceContent(filename, checksum, version, optimized);
+        logger.debug("File has been recompressed from " + content.length + " to "
+                + optimized.length + " bytes: " + filename);
+        return null;
+      });
+    } catch (IOException | RuntimeException e) {
+      logger.debug("Could not recompress file " + filename + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Atomically replaces the content of stored file, if it has not been changed,
+   * corrupted or removed since it was read with the checksum. A corrupted file is never
+   * replaced, so a file found corrupted by {@link #verify(String)} stays corrupted
+   * until it is quarantined.
+   *
+   * @param version the version of file, which had the checksum when it was read.
+   * */
+  private void replaceContent(String filename, long checksum, List<Object> version, byte[] content)
+          throws IOException {
+    synchronized (fileLock) {
+      FileMetadata current = metadataStore.read(filename);
+      if (current == null || current.getChecksum() != checksum || !index.contains(filename)
+              || !version.equals(fileVersion(load(filename)))) {
+        return;
+      }
+      Path temp = Files.createTempFile(rootLocation, ".optimize-", ".tmp");
+      try {
+        FileMetadata copied = copyWithChecksum(new ByteArrayInputStream(content), temp);
+        // the sidecar accepts both contents until the file has been replaced,
+        // so a crash in the middle does not make a healthy file look corrupted
+        metadataStore.write(filename, new FileMetadata(copied.getChecksum(), copied.getSize(),
+                current.getPerceptualHash(), current));
+        Files.move(temp, load(filename), StandardCopyOption.ATOMIC_MOVE);
+        metadataStore.write(filename,
+                new FileMetadata(copied.getChecksum(), copied.getSize(), current.getPerceptualHash()));
+        index.update(filename, copied.getSize());
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    }
+  }
+
+  private void clearIndexes() {
+    index.clear();
+    synchronized (similarityIndex) {
+      similarityIndex.clear();
+      similarityIndexLoaded = true;
+    }
+  }
+
+  /**
+   * Returns the index of perceptual hashes, filling it from recorded metadata on first use.
+   * */
+  private SimilarityIndex similarityIndex() throws IOException {
+    if (!similarityIndexLoaded) {
+      synchronized (similarityIndex) {
+        if (!similarityIndexLoaded) {
+          index.ensureLoaded();
+          for (String filename : (Iterable<String>) index.names()::iterator) {
+            FileMetadata metadata = metadataStore.read(filename);
+            if (metadata != null && metadata.getPerceptualHash() != null) {
+              similarityIndex.put(filename, metadata.getPerceptualHash());
+            }
+          }
+          similarityIndexLoaded = true;
+        }
+      }
+    }
+    return similarityIndex;
+  }
+
+  /**
+   * @return the perceptual hash of image or <code>null</code> if the file is not a decodable image.
+   * */
+  private Long perceptualHash(Path file, String filename) {
+    try {
+      return decodeGovernor.decode(file, PerceptualHash.SAMPLE_WIDTH, PerceptualHash.SAMPLE_HEIGHT,
+              PerceptualHash::compute);
+    } catch (IOException | RuntimeException e) {
+      logger.debug("Could not compute perceptual hash of file " + filename + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Copies the content to the file computing its checksum on the fly
+   * and forces it to the disk, so a crash can not leave a truncated file.
+   * */
+  private FileMetadata copyWithChecksum(InputStream content, Path target) throws IOException {
+    CRC32 crc = new CRC32();
+    long size;
+    try (InputStream in = new CheckedInputStream(content, crc)) {
+      size = Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+    try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+    return new FileMetadata(crc.getValue(), size);
+  }
+
+  /**
+   * @return identity, size and modification time of the file, at least one of which changes
+   * whenever the file is written or replaced.
+   * */
+  private static List<Object> fileVersion(Path file) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    return Arrays.asList(attributes.fileKey(), attributes.size(), attributes.lastModifiedTime());
+  }
+
+  private FileMetadata computeMetadata(Path file) throws IOException {
+    CRC32 crc = new CRC32();
+    long size = 0;
+    try (InputStream in = new CheckedInputStream(Files.newInputStream(file), crc)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        size += read;
+      }
+    }
+    return new FileMetadata(crc.getValue(), size);
+  }
+
+  /**
+   * Cheap verification, which compares only the size of file with the recorded one.
+   * */
+  private boolean hasRecordedSize(String filename) {
+    try {
+      FileMetadata recorded = metadataStore.read(filename);
+      return recorded == null || recorded.matchesSize(Files.size(load(filename)));
+    } catch (IOException e) {
+      logger.error("IOException has occurred: " + e.getMessage());
+      throw new StorageException("Failed to verify file " + filename, e);
+    }
+  }
 }
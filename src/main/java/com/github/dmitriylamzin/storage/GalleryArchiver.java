@@ -0,0 +1,219 @@
+package com.github.dmitriylamzin.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports the whole gallery to a ZIP archive and imports it back.
+ *
+ * <p>Both directions are streamed, so neither the archive nor its entries
+ * are staged on disk and memory usage does not depend on the gallery size,
+ * only a single file or entry is held in memory at once.
+ * */
+@Component
+public class GalleryArchiver {
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final StorageService storageService;
+
+  /**
+   * Number of threads, which store imported entries.
+   * */
+  private final int importThreads;
+
+  /**
+   * Maximum number of bytes of a single imported entry.
+   * */
+  private final long entryMaxSize;
+
+  /**
+   * Constructor.
+   * */
+  @Autowired
+  public GalleryArchiver(StorageService storageService, StorageProperties properties) {
+    this.storageService = storageService;
+    this.importThreads = Math.max(1, properties.getImportThreads());
+    this.entryMaxSize = properties.getArchiveEntryMaxSize();
+  }
+
+  /**
+   * Writes all stored files to the stream as a ZIP archive.
+   *
+   * <p>Files of albums are written to directories named after albums.
+   * Files are written as STORED entries, because PNG content is already compressed.
+   * Every file is read into memory once and the checksum, which is required by STORED entries,
+   * is computed from the read content before the entry is written. Files, which checksum
+   * does not match the recorded one, or which have been removed in the meantime, are skipped.
+   * The number of skipped files is logged.
+   *
+   * @param out the stream to write the archive to. It is not closed by this method.
+   *
+   * @return number of exported files.
+   * */
+  public int exportArchive(OutputStream out) throws IOException {
+    logger.info("Exporting gallery");
+    List<String> albums;
+    try (Stream<String> stored = storageService.loadAlbums()) {
+      albums = stored.collect(Collectors.toList());
+    }
+    ZipOutputStream zip = new ZipOutputStream(out);
+    zip.setMethod(ZipOutputStream.STORED);
+    AtomicInteger skipped = new AtomicInteger();
+    int exported = exportFiles(storageService, "", zip, skipped);
+    for (String album : albums) {
+      exported += exportFiles(storageService.album(album), album + "/", zip, skipped);
+    }
+    zip.finish();
+    zip.flush();
+    logger.info("Gallery has been exported, files: " + exported + ", skipped files: " + skipped.get());
+    return exported;
+  }
+
+  /**
+   * Stores all entries of the ZIP archive read from the stream.
+   *
+   * <p>Entries from directories are stored to albums named after the directories.
+   * Entries nested deeper than <code>album/file</code> are rejected.
+   * Entries are read one by one and stored in parallel through
+   * {@link StorageService#store(org.springframework.web.multipart.MultipartFile)},
+   * so they are validated the same way as uploaded files. Only a bounded number
+   * of entries is held in memory at once and entries larger than
+   * {@link StorageProperties#getArchiveEntryMaxSize()} are rejected while they are read.
+   * Import stops at the first entry which fails to be stored.
+   *
+   * @param in the stream to read the archive from.
+   *
+   * @return number of imported files.
+   * */
+  public int importArchive(InputStream in) throws IOException {
+    logger.info("Importing gallery");
+    ExecutorService executor = Executors.newFixedThreadPool(importThreads);
+    Semaphore inFlight = new Semaphore(importThreads * 2);
+    AtomicInteger imported = new AtomicInteger();
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    try {
+      ZipInputStream zip = new ZipInputStream(in);
+      ZipEntry entry;
+      while (failure.get() == null && (entry = zip.getNextEntry()) != null) {
+        if (entry.isDirectory()) {
+          continue;
+        }
+        Path path = Paths.get(entry.getName());
+        if (path.getNameCount() > 2) {
+          failure.compareAndSet(null, new StorageFileRejectedException(
+                  "Archive entry is nested deeper than an album: " + entry.getName()));
+          break;
+        }
+        StorageService storage = path.getNameCount() > 1
+                ? storageService.album(path.getName(0).toString())
+                : storageService;
+        ArchiveEntryFile file;
+        try {
+          file = new ArchiveEntryFile(path.getFileName().toString(),
+                  readEntry(zip, entry.getName()));
+        } catch (StorageException e) {
+          failure.compareAndSet(null, e);
+          break;
+        }
+        inFlight.acquire();
+        executor.execute(() -> {
+          try {
+            storage.store(file);
+            imported.incrementAndGet();
+          } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+          } finally {
+            inFlight.release();
+          }
+        });
+      }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException("Import of gallery has been interrupted", e);
+    } finally {
+      executor.shutdownNow();
+    }
+    if (failure.get() != null) {
+      logger.error("Import of gallery has failed: " + failure.get().getMessage());
+      throw new StorageException("Failed to import gallery, imported files: " + imported.get(),
+              failure.get());
+    }
+    logger.info("Gallery has been imported, files: " + imported.get());
+    return imported.get();
+  }
+
+  private byte[] readEntry(InputStream zip, String name) throws IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+    int read;
+    while ((read = zip.read(buffer)) != -1) {
+      if (entryMaxSize > 0 && content.size() + read > entryMaxSize) {
+        throw new StorageException("Archive entry is larger than " + entryMaxSize
+                + " bytes: " + name);
+      }
+      content.write(buffer, 0, read);
+    }
+    return content.toByteArray();
+  }
+
+  private int exportFiles(StorageService storage, String directory, ZipOutputStream zip,
+                          AtomicInteger skipped) throws IOException {
+    List<String> filenames;
+    try (Stream<Path> stored = storage.loadAll()) {
+      filenames = stored.map(path -> path.getFileName().toString()).collect(Collectors.toList());
+    }
+    int exported = 0;
+    for (String filename : filenames) {
+      try (StoredFile file = storage.open(filename)) {
+        byte[] content = StreamUtils.copyToByteArray(file.getInputStream());
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if (!file.getMetadata().matches(new FileMetadata(crc.getValue(), content.length))) {
+          logger.warn("Skipping file, which checksum does not match its metadata: "
+                  + directory + filename);
+          skipped.incrementAndGet();
+          continue;
+        }
+        ZipEntry entry = new ZipEntry(directory + filename);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+        exported++;
+      } catch (StorageException e) {
+        logger.warn("Skipping file, which can not be read: " + directory + filename);
+        skipped.incrementAndGet();
+      }
+    }
+    return exported;
+  }
+}
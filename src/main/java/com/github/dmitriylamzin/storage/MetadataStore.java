@@ -0,0 +1,123 @@
+package com.github.dmitriylamzin.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Keeps {@link FileMetadata} of stored files in sidecar files.
+ *
+ * <p>Every stored file gets a small properties file with the same name
+ * in the hidden <code>.meta</code> directory of the storage. A sidecar is forced
+ * to the disk before it replaces the previous one, and a sidecar, which can not
+ * be parsed, is treated as missing, so its metadata is computed again.
+ * While a file is being replaced, its sidecar keeps also the checksum
+ * and the size of the replaced content.
+ * */
+class MetadataStore {
+
+  /**
+   * The name of directory, where sidecar files are kept.
+   * */
+  static final String META_DIRECTORY = ".meta";
+
+  private static final String SUFFIX = ".properties";
+  private static final String CHECKSUM = "crc32";
+  private static final String SIZE = "size";
+  private static final String PERCEPTUAL_HASH = "dhash";
+  private static final String REPLACED = "replaced.";
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final Path metaLocation;
+
+  MetadataStore(Path rootLocation) {
+    this.metaLocation = rootLocation.resolve(META_DIRECTORY);
+  }
+
+  /**
+   * Reads metadata of the file.
+   *
+   * @param filename a name of stored file.
+   *
+   * @return metadata of the file or <code>null</code> if nothing has been recorded
+   *         or the recorded metadata can not be parsed.
+   * */
+  FileMetadata read(String filename) throws IOException {
+    Path sidecar = sidecar(filename);
+    if (!Files.exists(sidecar)) {
+      return null;
+    }
+    Properties properties = new Properties();
+    try (InputStream in = Files.newInputStream(sidecar)) {
+      properties.load(in);
+      String checksum = properties.getProperty(CHECKSUM);
+      String size = properties.getProperty(SIZE);
+      String perceptualHash = properties.getProperty(PERCEPTUAL_HASH);
+      if (checksum == null || size == null) {
+        logger.warn("Metadata is incomplete: " + sidecar);
+        return null;
+      }
+      String replacedChecksum = properties.getProperty(REPLACED + CHECKSUM);
+      String replacedSize = properties.getProperty(REPLACED + SIZE);
+      FileMetadata replaced = replacedChecksum == null || replacedSize == null ? null
+              : new FileMetadata(Long.parseLong(replacedChecksum), Long.parseLong(replacedSize));
+      return new FileMetadata(Long.parseLong(checksum), Long.parseLong(size),
+              perceptualHash == null ? null : Long.parseUnsignedLong(perceptualHash, 16), replaced);
+    } catch (IllegalArgumentException e) {
+      logger.warn("Metadata can not be parsed: " + sidecar + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Records metadata of the file, replacing the previous one.
+   * */
+  void write(String filename, FileMetadata metadata) throws IOException {
+    Files.createDirectories(metaLocation);
+    Properties properties = new Properties();
+    properties.setProperty(CHECKSUM, Long.toString(metadata.getChecksum()));
+    properties.setProperty(SIZE, Long.toString(metadata.getSize()));
+    if (metadata.getPerceptualHash() != null) {
+      properties.setProperty(PERCEPTUAL_HASH, Long.toHexString(metadata.getPerceptualHash()));
+    }
+    if (metadata.getReplaced() != null) {
+      properties.setProperty(REPLACED + CHECKSUM, Long.toString(metadata.getReplaced().getChecksum()));
+      properties.setProperty(REPLACED + SIZE, Long.toString(metadata.getReplaced().getSize()));
+    }
+
+    Path temp = Files.createTempFile(metaLocation, ".", SUFFIX);
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+           OutputStream out = Channels.newOutputStream(channel)) {
+        properties.store(out, null);
+        channel.force(true);
+      }
+      Files.move(temp, sidecar(filename),
+              StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Removes metadata of the file if it exists.
+   * */
+  void delete(String filename) throws IOException {
+    Files.deleteIfExists(sidecar(filename));
+  }
+
+  private Path sidecar(String filename) {
+    return metaLocation.resolve(filename + SUFFIX);
+  }
+}
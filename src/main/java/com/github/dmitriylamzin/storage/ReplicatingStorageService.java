@@ -0,0 +1,501 @@
+package com.github.dmitriylamzin.storage;
+
+import com.github.dmitriylamzin.storage.ReplicationLog.Change;
+import com.github.dmitriylamzin.storage.ReplicationLog.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of {@link StorageService} interface, which replicates
+ * stored files to other nodes.
+ *
+ * <p>Every change is written to the {@link ReplicationLog} before it is made
+ * in the local storage. Background shippers send changes to every peer in order
+ * and continue from the last change applied by the peer, so a peer, which has been
+ * unavailable, catches up when it is back. A peer, which has not applied changes
+ * removed from the log by compaction, is sent all stored files first.
+ * Files are read from the local storage.
+ * A file stored by a change made here or applied from a peer since the start,
+ * which has not arrived yet or has been quarantined, is fetched from peers when it is requested.
+ *
+ * <p>Deletions are not replicated, so files of a replicated storage can not be deleted.
+ *
+ * <p>Requests to peers carry the shared secret in {@link #SECRET_HEADER}.
+ *
+ * <p>Replication is enabled when <code>replication.enabled</code> is set to <code>true</code>.
+ * */
+@Service
+@Primary
+@ConditionalOnProperty(prefix = "replication", name = "enabled", havingValue = "true")
+public class ReplicatingStorageService implements StorageService, DisposableBean {
+
+  /**
+   * The name of HTTP header, which carries the secret shared by all nodes.
+   * */
+  public static final String SECRET_HEADER = "X-Replication-Secret";
+
+  /**
+   * Maximum number of changes shipped to a peer in one attempt.
+   * */
+  private static final int SHIP_BATCH_SIZE = 1000;
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final StorageService delegate;
+
+  /**
+   * The name of album, which this storage replicates, or <code>null</code> for the default album.
+   * */
+  private final String album;
+
+  private final ReplicationLog log;
+
+  private final List<String> peers;
+
+  private final RestTemplate restTemplate;
+
+  /**
+   * Fetches missing files from peers with a short timeout, while a file is being served.
+   * */
+  private final RestTemplate fetchRestTemplate;
+
+  /**
+   * Albums and names of files stored by changes made here or applied from peers,
+   * only these files are fetched from peers when they are missing.
+   * */
+  private final Set<String> replicatedFiles;
+
+  private final ScheduledExecutorService shippers;
+
+  /**
+   * Serializes changes applied from peers, so every change is applied once.
+   * */
+  private final Object applyLock;
+
+  /**
+   * Constructor.
+   * */
+  @Autowired
+  public ReplicatingStorageService(FileSystemStorageService delegate, StorageProperties storageProperties,
+                                   ReplicationProperties properties) throws IOException {
+    if (storageProperties.isCleanOnStartup()) {
+      throw new IllegalStateException("Replicated storage should not be cleaned on startup, "
+              + "set storage.clean-on-startup=false");
+    }
+    if (storageProperties.isCleanOnUploadForm()) {
+      throw new IllegalStateException("Replicated storage should not be cleaned by the upload form, "
+              + "set storage.clean-on-upload-form=false");
+    }
+    if (properties.getPeers().isEmpty()) {
+      throw new IllegalStateException("Replicated storage should have peers, set replication.peers");
+    }
+    if (properties.getSecret() == null || properties.getSecret().isEmpty()) {
+      throw new IllegalStateException("Replicated storage should have a shared secret, set replication.secret");
+    }
+    this.delegate = delegate;
+    this.album = null;
+    this.log = new ReplicationLog(Paths.get(properties.getLogLocation()), properties.getNodeId(),
+            properties.getPeers());
+    this.peers = properties.getPeers();
+    this.restTemplate = createRestTemplate(properties.getTimeout(), properties.getSecret());
+    this.fetchRestTemplate = createRestTemplate(properties.getFetchTimeout(), properties.getSecret());
+    this.replicatedFiles = ConcurrentHashMap.newKeySet();
+    this.applyLock = new Object();
+    this.shippers = Executors.newScheduledThreadPool(Math.max(1, peers.size()), daemonThreads());
+    for (String peer : peers) {
+      shippers.scheduleWithFixedDelay(new Shipper(peer), 0, properties.getShipInterval(), TimeUnit.MILLISECONDS);
+    }
+    logger.info("Replicating storage of node " + log.getNodeId() + " to " + peers);
+  }
+
+  private ReplicatingStorageService(ReplicatingStorageService root, String album) {
+    this.delegate = root.delegate;
+    this.album = album;
+    this.log = root.log;
+    this.peers = root.peers;
+    this.restTemplate = root.restTemplate;
+    this.fetchRestTemplate = root.fetchRestTemplate;
+    this.replicatedFiles = root.replicatedFiles;
+    this.shippers = null;
+    this.applyLock = root.applyLock;
+  }
+
+  @Override
+  public void init() {
+    delegate.init();
+  }
+
+  @Override
+  public void store(MultipartFile file) {
+    Change change = append(Operation.STORE, file.getOriginalFilename());
+    try {
+      storage(album).store(file);
+      replicatedFiles.add(key(album, file.getOriginalFilename()));
+    } finally {
+      change.complete();
+    }
+  }
+
+  @Override
+  public void store(MultipartFile[] files) {
+    for (MultipartFile file : files) {
+      store(file);
+    }
+  }
+
+  @Override
+  public Stream<Path> loadAll() {
+    return storage(album).loadAll();
+  }
+
+  @Override
+  public Stream<Path> loadSimilar(String filename, int maxDistance) {
+    return storage(album).loadSimilar(filename, maxDistance);
+  }
+
+  @Override
+  public Path load(String filename) {
+    return storage(album).load(filename);
+  }
+
+  @Override
+  public Resource loadAsResource(String filename) {
+    try {
+      return storage(album).loadAsResource(filename);
+    } catch (StorageException e) {
+      if (!replicatedFiles.contains(key(album, filename)) || !fetchFromPeers(filename)) {
+        throw e;
+      }
+      return storage(album).loadAsResource(filename);
+    }
+  }
+
+  @Override
+  public FileMetadata loadMetadata(String filename) {
+    return storage(album).loadMetadata(filename);
+  }
+
+  @Override
+  public StoredFile open(String filename) {
+    return storage(album).open(filename);
+  }
+
+  @Override
+  public boolean verify(String filename) {
+    return storage(album).verify(filename);
+  }
+
+  @Override
+  public void quarantine(String filename) {
+    storage(album).quarantine(filename);
+  }
+
+  @Override
+  public void deleteAll() {
+    throw new StorageException("Files of replicated storage can not be deleted");
+  }
+
+  @Override
+  public void deleteAlbums() {
+    throw new StorageException("Albums of replicated storage can not be deleted");
+  }
+
+  @Override
+  public StorageService album(String name) {
+    if (album != null) {
+      throw new StorageException("Albums can not be nested: " + name);
+    }
+    delegate.album(name);
+    return new ReplicatingStorageService(this, name);
+  }
+
+  @Override
+  public Stream<String> loadAlbums() {
+    return album == null ? delegate.loadAlbums() : Stream.empty();
+  }
+
+  @Override
+  public void destroy() throws IOException {
+    if (shippers != null) {
+      shippers.shutdownNow();
+      log.close();
+    }
+  }
+
+  /**
+   * @return sequence number of the last change of the node, which has been applied here.
+   * */
+  public long getPosition(String origin) {
+    return log.getPosition(origin);
+  }
+
+  /**
+   * Applies a stored file shipped by a peer to the local storage without logging it again.
+   * Changes, which have been applied already, are ignored. A file rejected by validation
+   * of the local storage is skipped, any other failure leaves the change to be shipped again.
+   *
+   * @param origin the name of node, where the change has been made.
+   * @param sequence the sequence number of change at the origin.
+   * @param operation the name of {@link ReplicationLog.Operation}.
+   * @param album a name of album or <code>null</code> for the default one.
+   * @param filename a name of stored file, if the change is about a single file.
+   * @param content the content of stored file.
+   * */
+  public void apply(String origin, long sequence, String operation, String album, String filename,
+                    byte[] content) {
+    synchronized (applyLock) {
+      if (sequence <= log.getPosition(origin)) {
+        logger.debug("Change " + sequence + " of " + origin + " has been applied already");
+        return;
+      }
+      if (Operation.valueOf(operation) != Operation.STORE) {
+        throw new StorageException("Unsupported replicated operation " + operation);
+      }
+      try {
+        storeReplica(storage(album), filename, content);
+        replicatedFiles.add(key(album, filename));
+      } catch (StorageFileRejectedException e) {
+        logger.warn("Replicated file has been rejected: " + e.getMessage());
+      }
+      try {
+        log.setPosition(origin, sequence);
+      } catch (IOException e) {
+        logger.error("IOException has occurred: " + e.getMessage());
+        throw new StorageException("Failed to record replication position of " + origin, e);
+      }
+    }
+  }
+
+  /**
+   * Stores a file sent by a peer, which synchronizes the whole storage, without logging it.
+   * A file, which is stored already, is kept.
+   *
+   * @param album a name of album or <code>null</code> for the default one.
+   * */
+  public void applyFile(String album, String filename, byte[] content) {
+    synchronized (applyLock) {
+      storeReplica(storage(album), filename, content);
+      replicatedFiles.add(key(album, filename));
+    }
+  }
+
+  /**
+   * Reads a stored file from the local storage only, so peers do not fetch it from each other in a loop.
+   *
+   * @return the content of file.
+   * */
+  public byte[] loadLocalContent(String album, String filename) {
+    checkFilename(filename);
+    try {
+      return Files.readAllBytes(storage(album).load(filename));
+    } catch (NoSuchFileException e) {
+      throw new StorageFileNotFoundException("Could not read file: " + filename, e);
+    } catch (IOException e) {
+      logger.error("IOException has occurred: " + e.getMessage());
+      throw new StorageException("Failed to read file " + filename, e);
+    }
+  }
+
+  private Change append(Operation operation, String filename) {
+    try {
+      return log.append(operation, album, filename);
+    } catch (IOException e) {
+      logger.error("IOException has occurred: " + e.getMessage());
+      throw new StorageException("Failed to write replication log", e);
+    }
+  }
+
+  private StorageService storage(String album) {
+    return album == null || album.isEmpty() ? delegate : delegate.album(album);
+  }
+
+  private static String key(String album, String filename) {
+    return (album == null ? "" : album) + "/" + filename;
+  }
+
+  private void storeReplica(StorageService storage, String filename, byte[] content) {
+    checkFilename(filename);
+    if (content == null || content.length == 0 || Files.exists(storage.load(filename))) {
+      logger.debug("File is already stored or is not available: " + filename);
+      return;
+    }
+    storage.store(new ArchiveEntryFile(filename, content));
+  }
+
+  private static void checkFilename(String filename) {
+    if (filename == null || filename.startsWith(".") || filename.contains("/") || filename.contains("\\")) {
+      throw new StorageFileRejectedException("Invalid file name " + filename);
+    }
+  }
+
+  /**
+   * Fetches a file missing in the local storage from the first peer, which has it.
+   *
+   * @return <code>true</code> if the file has been stored locally.
+   * */
+  private boolean fetchFromPeers(String filename) {
+    for (String peer : peers) {
+      try {
+        byte[] content = fetchRestTemplate.getForObject(peer + "/replication/files?album={album}&filename={filename}",
+                byte[].class, album == null ? "" : album, filename);
+        logger.info("File has been fetched from " + peer + ": " + filename);
+        storeReplica(storage(album), filename, content);
+        return Files.exists(storage(album).load(filename));
+      } catch (RestClientException e) {
+        logger.debug("File has not been fetched from " + peer + ": " + e.getMessage());
+      } catch (StorageException e) {
+        logger.warn("File fetched from " + peer + " has not been stored: " + e.getMessage());
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private static RestTemplate createRestTemplate(int timeout, String secret) {
+    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+    requestFactory.setConnectTimeout(timeout);
+    requestFactory.setReadTimeout(timeout);
+    RestTemplate restTemplate = new RestTemplate(requestFactory);
+    restTemplate.setInterceptors(Collections.singletonList((request, body, execution) -> {
+      request.getHeaders().set(SECRET_HEADER, secret);
+      return execution.execute(request, body);
+    }));
+    return restTemplate;
+  }
+
+  private static ThreadFactory daemonThreads() {
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, "replication-shipper-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Ships changes of this node to a single peer.
+   * */
+  private class Shipper implements Runnable {
+
+    private final String peer;
+
+    /**
+     * The last change applied by the peer or -1 if it should be asked for it.
+     * */
+    private long position = -1;
+
+    Shipper(String peer) {
+      this.peer = peer;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (position < 0) {
+          String applied = restTemplate.getForObject(peer + "/replication/position?origin={origin}",
+                  String.class, log.getNodeId());
+          position = Long.parseLong(applied.trim());
+          long first = log.getFirstSequence();
+          if (position < first - 1) {
+            logger.info("Changes after " + position + " have been compacted, sending all files to " + peer);
+            shipFiles();
+            position = first - 1;
+          }
+          logger.info("Shipping changes to " + peer + " after " + position);
+          log.acknowledge(peer, position);
+        }
+        List<Change> changes;
+        while (!(changes = log.readAfter(position, SHIP_BATCH_SIZE)).isEmpty()) {
+          for (Change change : changes) {
+            ship(change);
+            position = change.sequence;
+          }
+          log.acknowledge(peer, position);
+        }
+      } catch (RestClientException | IOException | NumberFormatException e) {
+        logger.warn("Changes have not been shipped to " + peer + ": " + e.getMessage());
+        position = -1;
+      } catch (RuntimeException e) {
+        logger.error("Shipping to " + peer + " has failed", e);
+        position = -1;
+      }
+    }
+
+    /**
+     * Sends all files of the local storage, so the peer has every file stored
+     * by changes, which have been removed from the log.
+     * */
+    private void shipFiles() throws IOException {
+      List<String> albums = delegate.loadAlbums().collect(Collectors.toList());
+      shipFiles(null);
+      for (String name : albums) {
+        shipFiles(name);
+      }
+    }
+
+    private void shipFiles(String album) throws IOException {
+      List<Path> files = storage(album).loadAll().collect(Collectors.toList());
+      for (Path file : files) {
+        byte[] content;
+        try {
+          content = Files.readAllBytes(storage(album).load(file.toString()));
+        } catch (NoSuchFileException e) {
+          logger.debug("File has been deleted before it was sent: " + file);
+          continue;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        restTemplate.postForEntity(peer + "/replication/files?album={album}&filename={filename}",
+                new HttpEntity<>(content, headers), Void.class, album == null ? "" : album, file.toString());
+      }
+    }
+
+    private void ship(Change change) throws IOException {
+      byte[] content = new byte[0];
+      if (change.operation == Operation.STORE) {
+        try {
+          content = Files.readAllBytes(storage(change.album).load(change.filename));
+        } catch (NoSuchFileException e) {
+          logger.debug("File has been deleted before it was shipped: " + change.filename);
+        }
+      }
+      HttpHeaders headers = new HttpHeaders();
+      headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+      restTemplate.postForEntity(peer + "/replication/changes?origin={origin}&sequence={sequence}"
+                      + "&operation={operation}&album={album}&filename={filename}",
+              new HttpEntity<>(content, headers), Void.class,
+              log.getNodeId(), change.sequence, change.operation,
+              change.album == null ? "" : change.album, change.filename == null ? "" : change.filename);
+    }
+  }
+}
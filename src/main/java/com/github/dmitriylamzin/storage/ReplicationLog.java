@@ -0,0 +1,377 @@
+package com.github.dmitriylamzin.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Append-only log of changes of the storage made on this node,
+ * together with positions of changes of other nodes applied here.
+ *
+ * <p>Every change gets the next sequence number and is written to
+ * <code>changes.log</code> and forced to disk before the change is made,
+ * so a change is never lost for replication even if the node crashes.
+ * Changes are read back from the file, only a sparse index of their offsets
+ * is kept in memory. Changes applied by all peers are removed from the file
+ * once there are enough of them, a peer, which has not applied removed changes,
+ * should be sent all stored files instead.
+ * Positions are kept in <code>positions.properties</code>, so a restarted
+ * node continues to receive changes of a peer from the last applied one.
+ * */
+class ReplicationLog implements AutoCloseable {
+
+  private static final String CHANGES = "changes.log";
+  private static final String POSITIONS = "positions.properties";
+  private static final String NODE_ID = "node-id";
+  private static final char SEPARATOR = '\t';
+
+  /**
+   * Number of changes between two entries of the offset index.
+   * */
+  private static final int INDEX_INTERVAL = 1024;
+
+  /**
+   * Number of changes applied by all peers, which makes the log to be compacted.
+   * */
+  private static final int COMPACT_THRESHOLD = 10000;
+
+  /**
+   * Kinds of changes of the storage.
+   * */
+  enum Operation {
+    STORE
+  }
+
+  private final Path location;
+
+  private final String nodeId;
+
+  /**
+   * Names of nodes, which changes are shipped to.
+   * */
+  private final Collection<String> peers;
+
+  private FileChannel channel;
+
+  /**
+   * File offsets of every {@link #INDEX_INTERVAL}-th change by their sequence numbers.
+   * */
+  private final NavigableMap<Long, Long> offsets = new TreeMap<>();
+
+  /**
+   * Changes appended since the oldest one, which is still being made.
+   * */
+  private final Deque<Change> inFlight = new ArrayDeque<>();
+
+  /**
+   * Sequence number of the last change written to the log.
+   * */
+  private long lastSequence;
+
+  /**
+   * Sequence numbers of the last changes of this node applied by peers,
+   * which have been reported since the start.
+   * */
+  private final Map<String, Long> acknowledged = new HashMap<>();
+
+  private final Properties positions = new Properties();
+
+  ReplicationLog(Path location, String nodeId, Collection<String> peers) throws IOException {
+    this.location = location;
+    this.peers = peers;
+    Files.createDirectories(location);
+    this.nodeId = nodeId != null ? nodeId : readNodeId();
+    this.channel = openChanges();
+    readChanges();
+    Path positionsFile = location.resolve(POSITIONS);
+    if (Files.exists(positionsFile)) {
+      try (InputStream in = Files.newInputStream(positionsFile)) {
+        positions.load(in);
+      }
+    }
+  }
+
+  String getNodeId() {
+    return nodeId;
+  }
+
+  /**
+   * Writes a change to the log before it is made.
+   *
+   * @param album a name of album or <code>null</code> for the default one.
+   * @param filename a name of stored file or <code>null</code> if the change is not about a single file.
+   *
+   * @return the change, which should be completed when it has been made.
+   * */
+  synchronized Change append(Operation operation, String album, String filename) throws IOException {
+    Change change = new Change(lastSequence + 1, operation, album, filename, false);
+    String line = change.sequence + "" + SEPARATOR + operation + SEPARATOR
+            + (album == null ? "" : album) + SEPARATOR + (filename == null ? "" : filename) + "\n";
+    ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+    long offset = channel.size();
+    channel.position(offset);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    channel.force(false);
+    lastSequence = change.sequence;
+    index(change.sequence, offset);
+    inFlight.add(change);
+    return change;
+  }
+
+  /**
+   * Reads completed changes, which follow the sequence number. Reading stops
+   * at the first change, which is still being made, so changes are read in order.
+   * Changes removed by compaction are not read.
+   * */
+  synchronized List<Change> readAfter(long sequence, int limit) throws IOException {
+    while (!inFlight.isEmpty() && inFlight.peekFirst().completed) {
+      inFlight.pollFirst();
+    }
+    long last = inFlight.isEmpty() ? lastSequence : inFlight.peekFirst().sequence - 1;
+    List<Change> result = new ArrayList<>();
+    if (sequence >= last) {
+      return result;
+    }
+    Map.Entry<Long, Long> start = offsets.floorEntry(sequence + 1);
+    if (start == null) {
+      start = offsets.firstEntry();
+    }
+    try (FileChannel reading = FileChannel.open(location.resolve(CHANGES), StandardOpenOption.READ)) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+              Channels.newInputStream(reading.position(start.getValue())), StandardCharsets.UTF_8));
+      String line;
+      while (result.size() < limit && (line = reader.readLine()) != null) {
+        Change change = parse(line);
+        if (change.sequence > last) {
+          break;
+        }
+        if (change.sequence > sequence) {
+          result.add(change);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return sequence number of the first change, which has not been removed by compaction.
+   * */
+  synchronized long getFirstSequence() {
+    return offsets.isEmpty() ? lastSequence + 1 : offsets.firstKey();
+  }
+
+  /**
+   * Records the last change of this node applied by a peer
+   * and compacts the log if enough changes have been applied by all peers.
+   * */
+  synchronized void acknowledge(String peer, long sequence) throws IOException {
+    acknowledged.put(peer, sequence);
+    if (!offsets.isEmpty() && compactableUpTo() - offsets.firstKey() + 1 >= COMPACT_THRESHOLD) {
+      compact();
+    }
+  }
+
+  /**
+   * Removes changes, which have been applied by all peers, from the log.
+   * The last change is always kept, so sequence numbers continue after a restart.
+   * */
+  synchronized void compact() throws IOException {
+    long upTo = compactableUpTo();
+    if (offsets.isEmpty() || upTo < offsets.firstKey()) {
+      return;
+    }
+    long from = offsetAfter(upTo);
+    Path temp = Files.createTempFile(location, ".", ".log");
+    try {
+      try (FileChannel compacted = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        long position = from;
+        while (position < channel.size()) {
+          position += channel.transferTo(position, channel.size() - position, compacted);
+        }
+        compacted.force(true);
+      }
+      channel.close();
+      try {
+        Files.move(temp, location.resolve(CHANGES),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        channel = openChanges();
+        offsets.clear();
+        readChanges();
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * @return sequence number of the last change of the node, which has been applied here.
+   * */
+  synchronized long getPosition(String origin) {
+    return Long.parseLong(positions.getProperty(origin, "0"));
+  }
+
+  /**
+   * Records that changes of the node up to the sequence number have been applied here.
+   * Positions are forced to disk, so a change is not applied again after a crash.
+   * */
+  synchronized void setPosition(String origin, long sequence) throws IOException {
+    positions.setProperty(origin, Long.toString(sequence));
+    Path temp = Files.createTempFile(location, ".", ".properties");
+    try {
+      try (FileChannel written = FileChannel.open(temp, StandardOpenOption.WRITE);
+           OutputStream out = Channels.newOutputStream(written)) {
+        positions.store(out, null);
+        written.force(true);
+      }
+      Files.move(temp, location.resolve(POSITIONS),
+              StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+
+  private String readNodeId() throws IOException {
+    Path file = location.resolve(NODE_ID);
+    if (Files.exists(file)) {
+      return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+    }
+    String generated = UUID.randomUUID().toString();
+    Files.write(file, generated.getBytes(StandardCharsets.UTF_8));
+    return generated;
+  }
+
+  private FileChannel openChanges() throws IOException {
+    return FileChannel.open(location.resolve(CHANGES),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Indexes changes written before a restart. A line, which has not been
+   * written completely because of a crash, is cut off.
+   * */
+  private void readChanges() throws IOException {
+    long end = 0;
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(location.resolve(CHANGES)))) {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      long offset = 0;
+      int read;
+      while ((read = in.read()) != -1) {
+        offset++;
+        if (read != '\n') {
+          line.write(read);
+          continue;
+        }
+        if (line.size() > 0) {
+          lastSequence = parse(new String(line.toByteArray(), StandardCharsets.UTF_8)).sequence;
+          index(lastSequence, end);
+        }
+        end = offset;
+        line.reset();
+      }
+    }
+    channel.truncate(end);
+  }
+
+  private void index(long sequence, long offset) {
+    if (offsets.isEmpty() || sequence - offsets.lastKey() >= INDEX_INTERVAL) {
+      offsets.put(sequence, offset);
+    }
+  }
+
+  /**
+   * @return the file offset of the first change following the sequence number.
+   * */
+  private long offsetAfter(long sequence) throws IOException {
+    Map.Entry<Long, Long> start = offsets.floorEntry(sequence);
+    long offset = start.getValue();
+    try (FileChannel reading = FileChannel.open(location.resolve(CHANGES), StandardOpenOption.READ)) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+              Channels.newInputStream(reading.position(offset)), StandardCharsets.UTF_8));
+      String line;
+      while ((line = reader.readLine()) != null && parse(line).sequence <= sequence) {
+        offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+      }
+    }
+    return offset;
+  }
+
+  /**
+   * @return sequence number of the last change, which may be removed from the log,
+   *     or -1 if some peer has not reported its position yet.
+   * */
+  private long compactableUpTo() {
+    if (peers.isEmpty() || !acknowledged.keySet().containsAll(peers)) {
+      return -1;
+    }
+    return Math.min(Collections.min(acknowledged.values()), lastSequence - 1);
+  }
+
+  private static Change parse(String line) {
+    String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+    return new Change(Long.parseLong(fields[0]), Operation.valueOf(fields[1]),
+            fields[2].isEmpty() ? null : fields[2], fields[3].isEmpty() ? null : fields[3], true);
+  }
+
+  /**
+   * A single change of the storage.
+   * */
+  static class Change {
+
+    final long sequence;
+
+    final Operation operation;
+
+    final String album;
+
+    final String filename;
+
+    private volatile boolean completed;
+
+    Change(long sequence, Operation operation, String album, String filename, boolean completed) {
+      this.sequence = sequence;
+      this.operation = operation;
+      this.album = album;
+      this.filename = filename;
+      this.completed = completed;
+    }
+
+    /**
+     * Marks the change as made, successfully or not, so it may be shipped to peers.
+     * */
+    void complete() {
+      completed = true;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package com.github.dmitriylamzin.storage;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@ConfigurationProperties("replication")
+public class ReplicationProperties {
+
+  /**
+   * Whether stored files should be replicated to peers.
+   * */
+  private boolean enabled = false;
+
+  /**
+   * Base URLs of all other nodes, which stored files are replicated to,
+   * for example <code>http://localhost:8081</code>. They should be set if replication is enabled.
+   * */
+  private List<String> peers = new ArrayList<>();
+
+  /**
+   * Secret shared by all nodes, which is sent by peers with every replication request.
+   * It should be set if replication is enabled.
+   * */
+  private String secret;
+
+  /**
+   * Unique name of this node. If it is not set, a random name is generated
+   * and kept in the change log location.
+   * */
+  private String nodeId;
+
+  /**
+   * Folder location of the change log, it should not be inside the storage location.
+   * */
+  private String logLocation = "replication-log";
+
+  /**
+   * Delay in milliseconds between attempts to ship changes to a peer.
+   * */
+  private long shipInterval = 1000;
+
+  /**
+   * Connect and read timeout in milliseconds of requests to peers.
+   * */
+  private int timeout = 30000;
+
+  /**
+   * Connect and read timeout in milliseconds of requests, which fetch
+   * a missing file from peers while it is being served.
+   * */
+  private int fetchTimeout = 2000;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public List<String> getPeers() {
+    return peers;
+  }
+
+  public void setPeers(List<String> peers) {
+    this.peers = peers;
+  }
+
+  public String getSecret() {
+    return secret;
+  }
+
+  public void setSecret(String secret) {
+    this.secret = secret;
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public void setNodeId(String nodeId) {
+    this.nodeId = nodeId;
+  }
+
+  public String getLogLocation() {
+    return logLocation;
+  }
+
+  public void setLogLocation(String logLocation) {
+    this.logLocation = logLocation;
+  }
+
+  public long getShipInterval() {
+    return shipInterval;
+  }
+
+  public void setShipInterval(long shipInterval) {
+    this.shipInterval = shipInterval;
+  }
+
+  public int getTimeout() {
+    return timeout;
+  }
+
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  public int getFetchTimeout() {
+    return fetchTimeout;
+  }
+
+  public void setFetchTimeout(int fetchTimeout) {
+    this.fetchTimeout = fetchTimeout;
+  }
+}
@@ -0,0 +1,11 @@
+package com.github.dmitriylamzin.storage;
+
+/**
+ * Thrown when a file is not stored, because it does not pass validation of the storage.
+ * */
+public class StorageFileRejectedException extends StorageException {
+
+  public StorageFileRejectedException(String message) {
+    super(message);
+  }
+}
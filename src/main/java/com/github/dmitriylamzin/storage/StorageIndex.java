@@ -0,0 +1,173 @@
+package com.github.dmitriylamzin.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of files stored in a single directory.
+ *
+ * <p>Keeps names of files sorted together with their sizes and a running
+ * counter of bytes, so listing of files and checking of quota do not
+ * need to walk the directory. The directory is scanned only once,
+ * when the index is used for the first time.
+ * */
+class StorageIndex {
+
+  private final Path location;
+
+  private final ConcurrentNavigableMap<String, Long> sizes = new ConcurrentSkipListMap<>();
+
+  /**
+   * Bytes of indexed files together with bytes reserved by files being stored.
+   * */
+  private final AtomicLong usedBytes = new AtomicLong();
+
+  /**
+   * Names of files, which are being stored at the moment.
+   * */
+  private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+
+  private volatile boolean loaded;
+
+  StorageIndex(Path location) {
+    this.location = location;
+  }
+
+  /**
+   * Scans the directory if it has not been scanned yet.
+   * */
+  void ensureLoaded() throws IOException {
+    if (loaded) {
+      return;
+    }
+    synchronized (this) {
+      if (loaded) {
+        return;
+      }
+      if (Files.isDirectory(location)) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(location)) {
+          for (Path file : files) {
+            String filename = file.getFileName().toString();
+            if (!filename.startsWith(".") && Files.isRegularFile(file)) {
+              long size = Files.size(file);
+              sizes.put(filename, size);
+              usedBytes.addAndGet(size);
+            }
+          }
+        }
+      }
+      loaded = true;
+    }
+  }
+
+  /**
+   * @return names of indexed files in alphabetical order.
+   * */
+  Stream<String> names() {
+    return sizes.keySet().stream();
+  }
+
+  boolean contains(String filename) {
+    return sizes.containsKey(filename);
+  }
+
+  /**
+   * Claims the name for a file, which is going to be stored, so concurrent
+   * uploads of files with the same name can not replace each other.
+   * The claim should be released by {@link #unclaim(String)} when the file
+   * has been added to the index or has failed to be stored.
+   *
+   * @return <code>false</code> if the file is already indexed or is being stored.
+   * */
+  boolean claim(String filename) {
+    if (!claimed.add(filename)) {
+      return false;
+    }
+    // a file is added to the index before its claim is released
+    if (sizes.containsKey(filename)) {
+      claimed.remove(filename);
+      return false;
+    }
+    return true;
+  }
+
+  void unclaim(String filename) {
+    claimed.remove(filename);
+  }
+
+  /**
+   * Reserves bytes for a file, which is going to be stored.
+   *
+   * @param bytes number of bytes to reserve.
+   * @param limit maximum number of bytes in the directory, non positive value means no limit.
+   *
+   * @return <code>false</code> if the reservation would exceed the limit.
+   * */
+  boolean reserve(long bytes, long limit) {
+    while (true) {
+      long used = usedBytes.get();
+      if (limit > 0 && used + bytes > limit) {
+        return false;
+      }
+      if (usedBytes.compareAndSet(used, used + bytes)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Releases bytes reserved for a file, which has not been stored.
+   * */
+  void release(long bytes) {
+    usedBytes.addAndGet(-bytes);
+  }
+
+  /**
+   * Adds a stored file, which bytes have been reserved before, to the index.
+   * */
+  void add(String filename, long reservedBytes, long size) {
+    sizes.put(filename, size);
+    usedBytes.addAndGet(size - reservedBytes);
+  }
+
+  /**
+   * Updates the size of an indexed file, which content has been replaced.
+   * */
+  void update(String filename, long size) {
+    Long previous = sizes.replace(filename, size);
+    if (previous != null) {
+      usedBytes.addAndGet(size - previous);
+    }
+  }
+
+  void remove(String filename) {
+    Long size = sizes.remove(filename);
+    if (size != null) {
+      usedBytes.addAndGet(-size);
+    }
+  }
+
+  /**
+   * Empties the index after the directory has been deleted.
+   * */
+  synchronized void clear() {
+    sizes.clear();
+    usedBytes.set(0);
+    loaded = true;
+  }
+
+  /**
+   * @return number of bytes used by indexed files.
+   * */
+  long usedBytes() {
+    return usedBytes.get();
+  }
+}
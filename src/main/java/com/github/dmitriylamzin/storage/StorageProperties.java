@@ -10,6 +10,86 @@ public class StorageProperties {
    * */
   private String location = "upload-dir";
 
+  /**
+   * Maximum number of bytes, which may be stored in a single album,
+   * including the default one. Non positive value means no limit.
+   * */
+  private long albumQuota = 0;
+
+  /**
+   * Whether a file should be rejected if a similar image is already stored in the album.
+   * */
+  private boolean rejectDuplicates = false;
+
+  /**
+   * Maximum number of differing bits of perceptual hashes of images,
+   * which are considered to be duplicates. It is limited to the range from 0 to 11.
+   * */
+  private int duplicateDistance = 4;
+
+  /**
+   * Whether stored PNG files should be losslessly recompressed in background.
+   * */
+  private boolean optimizePng = false;
+
+  /**
+   * Number of background threads, which recompress stored PNG files.
+   * */
+  private int optimizeThreads = 1;
+
+  /**
+   * Maximum number of bytes used at once by decoding of stored images.
+   * */
+  private long decodeMemoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+  /**
+   * Maximum time in milliseconds, which decoding of an image waits for the memory budget.
+   * */
+  private long decodeTimeout = 30000;
+
+  /**
+   * Whether all stored files should be deleted when the application starts.
+   * */
+  private boolean cleanOnStartup = true;
+
+  /**
+   * Whether files of the default album should be deleted when the upload form is opened.
+   * */
+  private boolean cleanOnUploadForm = true;
+
+  /**
+   * Number of threads, which store entries of an imported archive.
+   * */
+  private int importThreads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Maximum number of bytes of a single entry of an imported archive.
+   * Non positive value means no limit.
+   * */
+  private long archiveEntryMaxSize = 1024 * 1024;
+
+  /**
+   * Whether the size of a file should be checked against its recorded
+   * metadata every time the file is loaded as a resource.
+   * */
+  private boolean verifyOnLoad = false;
+
+  /**
+   * Whether stored files should be periodically re-verified in background.
+   * */
+  private boolean scrubEnabled = true;
+
+  /**
+   * Delay in milliseconds between two background verification runs.
+   * */
+  private long scrubInterval = 3600000;
+
+  /**
+   * Maximum number of bytes per second read by background verification.
+   * Non positive value means no limit.
+   * */
+  private long scrubBytesPerSecond = 10 * 1024 * 1024;
+
   public String getLocation() {
     return location;
   }
@@ -17,4 +97,124 @@ public class StorageProperties {
   public void setLocation(String location) {
     this.location = location;
   }
+
+  public long getAlbumQuota() {
+    return albumQuota;
+  }
+
+  public void setAlbumQuota(long albumQuota) {
+    this.albumQuota = albumQuota;
+  }
+
+  public boolean isRejectDuplicates() {
+    return rejectDuplicates;
+  }
+
+  public void setRejectDuplicates(boolean rejectDuplicates) {
+    this.rejectDuplicates = rejectDuplicates;
+  }
+
+  public int getDuplicateDistance() {
+    return duplicateDistance;
+  }
+
+  public void setDuplicateDistance(int duplicateDistance) {
+    this.duplicateDistance = duplicateDistance;
+  }
+
+  public boolean isOptimizePng() {
+    return optimizePng;
+  }
+
+  public void setOptimizePng(boolean optimizePng) {
+    this.optimizePng = optimizePng;
+  }
+
+  public int getOptimizeThreads() {
+    return optimizeThreads;
+  }
+
+  public void setOptimizeThreads(int optimizeThreads) {
+    this.optimizeThreads = optimizeThreads;
+  }
+
+  public long getDecodeMemoryBudget() {
+    return decodeMemoryBudget;
+  }
+
+  public void setDecodeMemoryBudget(long decodeMemoryBudget) {
+    this.decodeMemoryBudget = decodeMemoryBudget;
+  }
+
+  public long getDecodeTimeout() {
+    return decodeTimeout;
+  }
+
+  public void setDecodeTimeout(long decodeTimeout) {
+    this.decodeTimeout = decodeTimeout;
+  }
+
+  public boolean isCleanOnStartup() {
+    return cleanOnStartup;
+  }
+
+  public void setCleanOnStartup(boolean cleanOnStartup) {
+    this.cleanOnStartup = cleanOnStartup;
+  }
+
+  public boolean isCleanOnUploadForm() {
+    return cleanOnUploadForm;
+  }
+
+  public void setCleanOnUploadForm(boolean cleanOnUploadForm) {
+    this.cleanOnUploadForm = cleanOnUploadForm;
+  }
+
+  public int getImportThreads() {
+    return importThreads;
+  }
+
+  public void setImportThreads(int importThreads) {
+    this.importThreads = importThreads;
+  }
+
+  public long getArchiveEntryMaxSize() {
+    return archiveEntryMaxSize;
+  }
+
+  public void setArchiveEntryMaxSize(long archiveEntryMaxSize) {
+    this.archiveEntryMaxSize = archiveEntryMaxSize;
+  }
+
+  public boolean isVerifyOnLoad() {
+    return verifyOnLoad;
+  }
+
+  public void setVerifyOnLoad(boolean verifyOnLoad) {
+    this.verifyOnLoad = verifyOnLoad;
+  }
+
+  public boolean isScrubEnabled() {
+    return scrubEnabled;
+  }
+
+  public void setScrubEnabled(boolean scrubEnabled) {
+    this.scrubEnabled = scrubEnabled;
+  }
+
+  public long getScrubInterval() {
+    return scrubInterval;
+  }
+
+  public void setScrubInterval(long scrubInterval) {
+    this.scrubInterval = scrubInterval;
+  }
+
+  public long getScrubBytesPerSecond() {
+    return scrubBytesPerSecond;
+  }
+
+  public void setScrubBytesPerSecond(long scrubBytesPerSecond) {
+    this.scrubBytesPerSecond = scrubBytesPerSecond;
+  }
 }
@@ -0,0 +1,110 @@
+package com.github.dmitriylamzin.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Background job, which periodically re-verifies all stored files
+ * and moves corrupted ones to quarantine.
+ *
+ * <p>The job reads not more than configured number of bytes per second,
+ * so it does not compete with serving of files for the disk.
+ * */
+@Component
+public class StorageScrubber {
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final StorageService storageService;
+
+  private final boolean enabled;
+
+  private final long bytesPerSecond;
+
+  /**
+   * Constructor.
+   * */
+  @Autowired
+  public StorageScrubber(StorageService storageService, StorageProperties properties) {
+    this.storageService = storageService;
+    this.enabled = properties.isScrubEnabled();
+    this.bytesPerSecond = properties.getScrubBytesPerSecond();
+  }
+
+  /**
+   * Verifies every stored file of the storage and all its albums.
+   *
+   * @return number of files, which have been quarantined.
+   * */
+  @Scheduled(fixedDelayString = "${storage.scrub-interval:3600000}",
+          initialDelayString = "${storage.scrub-interval:3600000}")
+  public int scrub() {
+    if (!enabled) {
+      return 0;
+    }
+    logger.info("Scrubbing storage");
+    List<String> albums;
+    try (Stream<String> stored = storageService.loadAlbums()) {
+      albums = stored.collect(Collectors.toList());
+    }
+    int quarantined = 0;
+    try {
+      quarantined += scrub(storageService);
+      for (String album : albums) {
+        quarantined += scrub(storageService.album(album));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    logger.info("Storage has been scrubbed, quarantined files: " + quarantined);
+    return quarantined;
+  }
+
+  private int scrub(StorageService storage) throws InterruptedException {
+    List<Path> files;
+    try (Stream<Path> stored = storage.loadAll()) {
+      files = stored.collect(Collectors.toList());
+    }
+    int quarantined = 0;
+    for (Path path : files) {
+      String filename = path.getFileName().toString();
+      long started = System.nanoTime();
+      try {
+        long size = Files.size(storage.load(filename));
+        if (!storage.verify(filename)) {
+          storage.quarantine(filename);
+          quarantined++;
+        }
+        throttle(size, started);
+      } catch (RuntimeException | IOException e) {
+        logger.warn("Could not scrub file " + filename + ": " + e.getMessage());
+      }
+    }
+    return quarantined;
+  }
+
+  /**
+   * Sleeps long enough to keep reading of the file within the I/O budget.
+   * */
+  private void throttle(long bytesRead, long startedNanos) throws InterruptedException {
+    if (bytesPerSecond <= 0) {
+      return;
+    }
+    long budgetMillis = TimeUnit.SECONDS.toMillis(1) * bytesRead / bytesPerSecond;
+    long pause = budgetMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+    if (pause > 0) {
+      TimeUnit.MILLISECONDS.sleep(pause);
+    }
+  }
+}
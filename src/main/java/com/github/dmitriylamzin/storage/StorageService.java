@@ -36,6 +36,16 @@ public interface StorageService {
    * */
   Stream<Path> loadAll();
 
+  /**
+   * Loads paths of files, which images look similar to the image of the file.
+   *
+   * @param filename a name of file, which similar files to be loaded.
+   * @param maxDistance maximum number of differing bits of perceptual hashes of similar images.
+   *
+   * @return a stream of {@link java.nio.file.Path}, ordered from the most similar file.
+   * */
+  Stream<Path> loadSimilar(String filename, int maxDistance);
+
   /**
    * Loads single file path from storage.
    *
@@ -55,8 +65,73 @@ public interface StorageService {
   Resource loadAsResource(String filename);
 
   /**
-   * Clears a storage from files.
+   * Loads integrity metadata of a stored file.
+   *
+   * <p>If nothing has been recorded for the file, the metadata is computed from its content.
+   *
+   * @param filename a name of file, which metadata to be loaded.
+   *
+   * @return the checksum and size of requested file.
+   * */
+  FileMetadata loadMetadata(String filename);
+
+  /**
+   * Opens a stored file for reading together with its integrity metadata.
+   *
+   * <p>The content of returned file matches returned metadata, unless the file is corrupted,
+   * even if the file is replaced in the meantime. The caller has to close returned file.
+   *
+   * @param filename a name of file to be opened.
+   *
+   * @return the opened file.
+   * */
+  StoredFile open(String filename);
+
+  /**
+   * Verifies the content of a stored file against the checksum,
+   * which has been recorded when the file was stored.
+   *
+   * @param filename a name of file to be verified.
+   *
+   * @return <code>false</code> if the file is corrupted, <code>true</code> otherwise.
+   * */
+  boolean verify(String filename);
+
+  /**
+   * Moves a corrupted file out of the storage, so it is not served anymore.
+   *
+   * @param filename a name of file to be quarantined.
+   * */
+  void quarantine(String filename);
+
+  /**
+   * Clears a storage from files. Albums and their files are kept,
+   * they are cleared through {@link #album(String)}.
    * */
   void deleteAll();
 
+  /**
+   * Deletes all albums of a storage together with their files.
+   * */
+  void deleteAlbums();
+
+  /**
+   * Returns the storage of an album.
+   *
+   * <p>Every album is isolated from the others: it has its own files,
+   * index and quota. All operations of returned storage affect only the album.
+   *
+   * @param name a name of album, which may contain only latin letters, digits, '-' and '_'.
+   *
+   * @return a storage of requested album.
+   * */
+  StorageService album(String name);
+
+  /**
+   * Loads names of all albums, which have been created in the storage.
+   *
+   * @return a stream of album names.
+   * */
+  Stream<String> loadAlbums();
+
 }
@@ -0,0 +1,46 @@
+package com.github.dmitriylamzin.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stored file opened for reading together with its recorded metadata.
+ *
+ * <p>The content is read from the file, which was opened together with loading
+ * of the metadata, so it is not affected by replacing of the file afterwards.
+ * */
+public class StoredFile implements Closeable {
+
+  private final FileMetadata metadata;
+
+  private final FileChannel channel;
+
+  StoredFile(FileMetadata metadata, FileChannel channel) {
+    this.metadata = metadata;
+    this.channel = channel;
+  }
+
+  public FileMetadata getMetadata() {
+    return metadata;
+  }
+
+  /**
+   * Returns the actual size of opened content, which differs
+   * from the recorded one if the file is corrupted.
+   * */
+  public long size() throws IOException {
+    return channel.size();
+  }
+
+  public InputStream getInputStream() {
+    return Channels.newInputStream(channel);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -10,14 +10,23 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.DigestUtils;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
@@ -63,4 +72,34 @@ public class FileUploadIntegrationTests {
 
     }
 
+    @Test
+    public void shouldServeFingerprintedGzippedStylesheets() throws Exception {
+        String page = this.restTemplate.getForObject("/photo", String.class);
+        Matcher stylesheet = Pattern.compile("/css/(bootstrap\\.min|white)-([0-9a-f]{32})\\.css").matcher(page);
+
+        int found = 0;
+        while (stylesheet.find()) {
+            found++;
+            byte[] content = StreamUtils.copyToByteArray(
+                    new ClassPathResource("static/css/" + stylesheet.group(1) + ".css").getInputStream());
+            assertThat(stylesheet.group(2)).isEqualTo(DigestUtils.md5DigestAsHex(content));
+
+            ResponseEntity<byte[]> plain = this.restTemplate.getForEntity(stylesheet.group(), byte[].class);
+            assertThat(plain.getStatusCodeValue()).isEqualTo(200);
+            assertThat(plain.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isNull();
+            assertThat(plain.getBody()).isEqualTo(content);
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+            ResponseEntity<byte[]> gzipped = this.restTemplate.exchange(stylesheet.group(),
+                    HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+            assertThat(gzipped.getStatusCodeValue()).isEqualTo(200);
+            assertThat(gzipped.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+            assertThat(gzipped.getHeaders().getCacheControl()).isEqualTo("max-age=31536000");
+            assertThat(StreamUtils.copyToByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipped.getBody()))))
+                    .isEqualTo(content);
+        }
+        assertThat(found).isEqualTo(2);
+    }
+
 }
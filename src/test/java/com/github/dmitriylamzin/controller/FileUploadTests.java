@@ -21,6 +21,7 @@ import java.util.stream.Stream;
 
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.mock;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.fileUpload;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -50,6 +51,43 @@ public class FileUploadTests {
                 .andExpect(model().attribute("stylesheet", "white.css"));
     }
 
+    @Test
+    public void shouldListAllFilesOfAlbum() throws Exception {
+        StorageService albumStorage = mock(StorageService.class);
+        given(this.storageService.album("team")).willReturn(albumStorage);
+        given(albumStorage.loadAll())
+                .willReturn(Stream.of(Paths.get("first.png")));
+
+        this.mvc.perform(get("/photo/team/gallery"))
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("files",
+                        Matchers.contains("http://localhost/photo/team/files/first.png")));
+    }
+
+    @Test
+    public void shouldSaveUploadedFileToAlbum() throws Exception {
+        StorageService albumStorage = mock(StorageService.class);
+        given(this.storageService.album("team")).willReturn(albumStorage);
+        MockMultipartFile multipartFile =
+                new MockMultipartFile("file", "test.png", "text/plain", "Spring Framework".getBytes());
+        MultipartFile[] multipartFiles = {multipartFile};
+        this.mvc.perform(fileUpload("/photo/team").file(multipartFile))
+                .andExpect(status().isFound())
+                .andExpect(header().string("Location", "/photo/team/gallery"));
+
+        then(albumStorage).should().store(multipartFiles);
+    }
+
+    @Test
+    public void shouldListSimilarFiles() throws Exception {
+        given(this.storageService.loadSimilar("first.png", 6))
+                .willReturn(Stream.of(Paths.get("second.png")));
+
+        this.mvc.perform(get("/photo/similar").param("filename", "first.png").param("distance", "6"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0]").value("http://localhost/photo/files/second.png"));
+    }
+
     @Test
     public void shouldChangeRowsNumber() throws Exception {
         given(this.storageService.loadAll())
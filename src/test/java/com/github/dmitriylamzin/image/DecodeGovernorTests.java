@@ -0,0 +1,92 @@
+package com.github.dmitriylamzin.image;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DecodeGovernorTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void shouldDecodeSubsampledImage() throws Exception {
+        Path file = png(1000, 800);
+        DecodeGovernor governor = new DecodeGovernor(1024 * 1024, 1000);
+
+        BufferedImage image = governor.decode(file, 100, 100, decoded -> decoded);
+
+        assertThat(image.getWidth()).isEqualTo(125);
+        assertThat(image.getHeight()).isEqualTo(100);
+        assertThat(governor.availableBytes()).isEqualTo(1024 * 1024);
+    }
+
+    @Test
+    public void shouldRejectImageExceedingBudget() throws Exception {
+        Path file = png(1000, 800);
+        DecodeGovernor governor = new DecodeGovernor(1024 * 1024, 1000);
+
+        thrown.expect(DecodeRejectedException.class);
+        thrown.expectMessage("exceeds the decode budget");
+
+        governor.decode(file, 0, 0, decoded -> decoded);
+    }
+
+    @Test
+    public void shouldRejectWorkAfterTimeoutWhenBudgetIsReserved() throws Exception {
+        DecodeGovernor governor = new DecodeGovernor(1024 * 1024, 50);
+        CountDownLatch reserved = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> holder = executor.submit(() -> governor.withReservation(1024 * 1024, () -> {
+                reserved.countDown();
+                awaitUninterruptibly(finish);
+                return null;
+            }));
+            reserved.await();
+
+            thrown.expect(DecodeRejectedException.class);
+            thrown.expectMessage("Timed out");
+            try {
+                governor.withReservation(1024, () -> null);
+            } finally {
+                finish.countDown();
+                holder.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Path png(int width, int height) throws Exception {
+        Path file = folder.newFile(width + "x" + height + ".png").toPath();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", file.toFile());
+        return file;
+    }
+}
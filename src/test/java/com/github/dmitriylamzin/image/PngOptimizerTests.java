@@ -0,0 +1,96 @@
+package com.github.dmitriylamzin.image;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PngOptimizerTests {
+
+    @Test
+    public void shouldUseUncompressedFixtures() throws Exception {
+        BufferedImage image = randomImage(BufferedImage.TYPE_INT_RGB);
+
+        assertThat(TestImages.uncompressedPng(image).length)
+                .isGreaterThan(image.getWidth() * image.getHeight() * 3)
+                .isGreaterThan(TestImages.png(image).length);
+        assertPixelsEqual(TestImages.png(image), TestImages.uncompressedPng(image));
+    }
+
+    @Test
+    public void shouldProducePixelIdenticalSmallerImage() throws Exception {
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_USHORT_GRAY}) {
+            byte[] png = TestImages.uncompressedPng(randomImage(type));
+
+            byte[] optimized = PngOptimizer.optimize(png);
+
+            assertThat(optimized).isNotNull();
+            assertThat(optimized.length).isLessThan(png.length);
+            assertPixelsEqual(png, optimized);
+        }
+    }
+
+    @Test
+    public void shouldStripTextChunks() throws Exception {
+        byte[] png = withTextChunk(TestImages.uncompressedPng(randomImage(BufferedImage.TYPE_INT_RGB)),
+                "Comment", "generated by a tool");
+
+        byte[] optimized = PngOptimizer.optimize(png);
+
+        assertThat(new String(optimized, StandardCharsets.ISO_8859_1)).doesNotContain("tEXt");
+        assertPixelsEqual(png, optimized);
+    }
+
+    @Test
+    public void shouldReturnNullWhenImageCanNotBeMadeSmaller() throws Exception {
+        byte[] optimized = PngOptimizer.optimize(TestImages.uncompressedPng(randomImage(BufferedImage.TYPE_INT_RGB)));
+
+        assertThat(PngOptimizer.optimize(optimized)).isNull();
+    }
+
+    private static BufferedImage randomImage(int type) {
+        return TestImages.randomImage(type, 301, 197, type);
+    }
+
+    /**
+     * Inserts a tEXt chunk right after the IHDR chunk.
+     */
+    private static byte[] withTextChunk(byte[] png, String keyword, String text) throws Exception {
+        int afterHeader = 8 + 4 + 4 + 13 + 4;
+        byte[] data = (keyword + '\0' + text).getBytes(StandardCharsets.ISO_8859_1);
+        byte[] type = "tEXt".getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(png, 0, afterHeader);
+        out.writeInt(data.length);
+        out.write(type);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+        out.write(png, afterHeader, png.length - afterHeader);
+        return bytes.toByteArray();
+    }
+
+    private static void assertPixelsEqual(byte[] expected, byte[] actual) throws Exception {
+        BufferedImage expectedImage = ImageIO.read(new ByteArrayInputStream(expected));
+        BufferedImage actualImage = ImageIO.read(new ByteArrayInputStream(actual));
+        assertThat(actualImage.getWidth()).isEqualTo(expectedImage.getWidth());
+        assertThat(actualImage.getHeight()).isEqualTo(expectedImage.getHeight());
+        for (int y = 0; y < expectedImage.getHeight(); y++) {
+            for (int x = 0; x < expectedImage.getWidth(); x++) {
+                assertThat(actualImage.getRGB(x, y)).isEqualTo(expectedImage.getRGB(x, y));
+            }
+        }
+    }
+}
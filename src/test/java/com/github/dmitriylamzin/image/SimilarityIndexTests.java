@@ -0,0 +1,94 @@
+package com.github.dmitriylamzin.image;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SimilarityIndexTests {
+
+    private final SimilarityIndex index = new SimilarityIndex();
+
+    @Test
+    public void shouldFindHashesWithinDistanceOrderedByDistance() {
+        index.put("same", 0b1010L);
+        index.put("close", 0b1010L ^ 0b111L);
+        index.put("far", ~0b1010L);
+
+        assertThat(index.search(0b1010L, 5)).containsExactly("same", "close");
+    }
+
+    @Test
+    public void shouldFindHashesDifferingInEveryChunk() {
+        long hash = 0x0123456789abcdefL;
+        long spread = hash ^ 1L ^ (1L << 17) ^ (1L << 34) ^ (1L << 51) ^ (1L << 52) ^ (1L << 60);
+        index.put("spread", spread);
+
+        assertThat(index.search(hash, 6)).containsExactly("spread");
+        assertThat(index.search(hash, 5)).isEmpty();
+    }
+
+    @Test
+    public void shouldFindSameHashesAsBruteForce() {
+        assertSameHashesAsBruteForce(10000);
+    }
+
+    @Test
+    public void shouldFindSameHashesAsBruteForceWithoutTables() {
+        assertSameHashesAsBruteForce(SimilarityIndex.TABLES_THRESHOLD - 1);
+    }
+
+    @Test
+    public void shouldNotFindHashRemovedAfterTablesAreBuilt() {
+        for (int i = 0; i < SimilarityIndex.TABLES_THRESHOLD; i++) {
+            index.put("photo" + i, i * 0x9e3779b97f4a7c15L);
+        }
+
+        index.remove("photo1");
+
+        assertThat(index.search(0x9e3779b97f4a7c15L, 0)).isEmpty();
+        assertThat(index.search(2 * 0x9e3779b97f4a7c15L, 0)).containsExactly("photo2");
+    }
+
+    @Test
+    public void shouldNotPutHashSimilarToIndexedOne() {
+        index.put("original", 0b1010L);
+
+        assertThat(index.putUnlessSimilar("copy", 0b1011L, 2)).containsExactly("original");
+        assertThat(index.putUnlessSimilar("other", ~0b1010L, 2)).isEmpty();
+        assertThat(index.get("copy")).isNull();
+        assertThat(index.get("other")).isEqualTo(~0b1010L);
+    }
+
+    @Test
+    public void shouldNotFindRemovedHash() {
+        index.put("first", 1L);
+        index.put("second", 1L);
+
+        index.remove("first");
+
+        assertThat(index.search(1L, 0)).containsExactly("second");
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    private void assertSameHashesAsBruteForce(int count) {
+        Random random = new Random(42);
+        long[] hashes = new long[count];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = random.nextLong();
+            index.put("photo" + i, hashes[i]);
+        }
+
+        for (int query = 0; query < 100; query++) {
+            long hash = hashes[random.nextInt(hashes.length)] ^ (random.nextLong() & random.nextLong() & random.nextLong());
+            int expected = 0;
+            for (long indexed : hashes) {
+                if (PerceptualHash.distance(hash, indexed) <= SimilarityIndex.MAX_DISTANCE) {
+                    expected++;
+                }
+            }
+            assertThat(index.search(hash, SimilarityIndex.MAX_DISTANCE)).hasSize(expected);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.dmitriylamzin.image;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Synthetic images used by tests.
+ */
+public final class TestImages {
+
+    private static final int SHAPES = 40;
+
+    private TestImages() {
+    }
+
+    /**
+     * Draws a random gradient with random ovals, which compresses about as well as a simple picture.
+     * The same seed always produces the same image.
+     */
+    public static BufferedImage randomImage(long seed, int width, int height, int type) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(random.nextInt(0x1000000)),
+                width, height, new Color(random.nextInt(0x1000000))));
+        graphics.fillRect(0, 0, width, height);
+        for (int shape = 0; shape < SHAPES; shape++) {
+            graphics.setColor(new Color(random.nextInt(0x1000000)));
+            graphics.fillOval(random.nextInt(width), random.nextInt(height),
+                    1 + random.nextInt(width / 2), 1 + random.nextInt(height / 2));
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * Draws a random RGB image, see {@link #randomImage(long, int, int, int)}.
+     */
+    public static BufferedImage randomImage(long seed, int width, int height) {
+        return randomImage(seed, width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Encodes the image as PNG with ImageIO.
+     */
+    public static byte[] png(BufferedImage image) throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        return png.toByteArray();
+    }
+
+    /**
+     * Encodes the image as PNG, which image data is stored without compression,
+     * so the PNG can always be recompressed to a smaller one.
+     */
+    public static byte[] uncompressedPng(BufferedImage image) throws IOException {
+        byte[] png = png(image);
+        ByteArrayOutputStream imageData = new ByteArrayOutputStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(png));
+        byte[] signature = new byte[8];
+        in.readFully(signature);
+        out.write(signature);
+        while (in.available() > 0) {
+            byte[] data = new byte[in.readInt()];
+            byte[] type = new byte[4];
+            in.readFully(type);
+            in.readFully(data);
+            in.readInt();
+            String name = new String(type, StandardCharsets.US_ASCII);
+            if (name.equals("IDAT")) {
+                imageData.write(data);
+                continue;
+            }
+            if (name.equals("IEND")) {
+                writeChunk(out, "IDAT", storedDeflate(imageData.toByteArray()));
+            }
+            writeChunk(out, name, data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] storedDeflate(byte[] deflated) throws IOException {
+        Deflater deflater = new Deflater(Deflater.NO_COMPRESSION);
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(deflated));
+             OutputStream out = new DeflaterOutputStream(stored, deflater)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            deflater.end();
+        }
+        return stored.toByteArray();
+    }
+
+    private static void writeChunk(DataOutputStream out, String name, byte[] data) throws IOException {
+        byte[] type = name.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(type);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+}
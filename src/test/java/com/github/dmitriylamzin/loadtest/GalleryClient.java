@@ -0,0 +1,93 @@
+package com.github.dmitriylamzin.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal HTTP client of the gallery, which uses only the JDK.
+ *
+ * <p>Response bodies are always read to the end, so that connections are
+ * kept alive and reused between requests of a virtual user.
+ */
+class GalleryClient {
+
+    private static final String BOUNDARY = "----gallery-load-test";
+
+    private final String baseUrl;
+
+    private final byte[] buffer = new byte[8192];
+
+    GalleryClient(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * Requests the gallery page.
+     *
+     * @return HTTP status of the response.
+     */
+    int gallery() throws IOException {
+        return get(baseUrl + "/photo/gallery");
+    }
+
+    /**
+     * Downloads the stored file.
+     *
+     * @return HTTP status of the response.
+     */
+    int file(String filename) throws IOException {
+        return get(baseUrl + "/photo/files/" + filename);
+    }
+
+    /**
+     * Uploads the file with multipart form, as the upload form of the gallery does.
+     *
+     * @return HTTP status of the response, which is a redirect on success.
+     */
+    int upload(String filename, byte[] content) throws IOException {
+        HttpURLConnection connection = open(baseUrl + "/photo");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
+        byte[] head = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: image/png\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        connection.setFixedLengthStreamingMode(head.length + content.length + tail.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(head);
+            out.write(content);
+            out.write(tail);
+        }
+        return finish(connection);
+    }
+
+    private int get(String url) throws IOException {
+        return finish(open(url));
+    }
+
+    private HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(60000);
+        return connection;
+    }
+
+    private int finish(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (body != null) {
+            try (InputStream in = body) {
+                while (in.read(buffer) != -1) {
+                    // the content is not needed, only the time to receive it
+                }
+            }
+        }
+        return status;
+    }
+}
@@ -0,0 +1,298 @@
+package com.github.dmitriylamzin.loadtest;
+
+import com.github.dmitriylamzin.Application;
+import com.github.dmitriylamzin.image.TestImages;
+import com.github.dmitriylamzin.loadtest.LoadTestSettings.Operation;
+import com.github.dmitriylamzin.storage.StorageService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * End-to-end load test of the gallery.
+ *
+ * <p>Boots the application against an empty temporary storage, stores synthetic
+ * photos and sends a mix of gallery views, downloads and uploads over localhost
+ * at a fixed rate, which does not depend on response times. Requests are sent by
+ * concurrent virtual users and latency of every request is measured from the time
+ * it was due, so a slow server is not hidden by fewer requests. Latency percentiles
+ * and throughput of every operation are printed and written to a CSV report,
+ * so runs before and after a change can be compared.
+ *
+ * <p>The test is excluded from the default build and runs with the
+ * <code>load-test</code> profile, for example
+ * <code>mvn test -Pload-test -Dloadtest.rate=1000 -Dloadtest.mix=gallery=20,file=75,upload=5</code>.
+ * See {@link LoadTestSettings} for all settings.
+ *
+ * <p><code>GET /photo</code> is never requested, because it removes all stored files.
+ */
+public class GalleryLoadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LoadTestSettings settings = new LoadTestSettings();
+
+    @Test
+    public void runGalleryWorkload() throws Exception {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                // storages configured by other tests on the classpath should not replace the one of application
+                .initializers(application -> application.addBeanFactoryPostProcessor(beanFactory ->
+                        beanFactory.getBeanDefinition("fileSystemStorageService").setPrimary(true)))
+                .properties(
+                        "server.port=0",
+                        "storage.location=" + folder.getRoot().getAbsolutePath(),
+                        "storage.clean-on-startup=true",
+                        "storage.scrub-enabled=false",
+                        "logging.level.com.github.dmitriylamzin=WARN")
+                .run()) {
+            String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            List<String> photos = storePhotos(context.getBean(StorageService.class));
+            List<byte[]> uploads = drawUploads();
+
+            Map<Operation, LatencyHistogram> histograms = runUsers(baseUrl, photos, uploads);
+
+            report(histograms);
+            LatencyHistogram total = total(histograms);
+            assertThat(total.count()).isGreaterThan(0);
+            assertThat(total.errors()).isZero();
+        }
+    }
+
+    private List<String> storePhotos(StorageService storageService) throws IOException {
+        Random random = new Random(settings.seed);
+        List<String> photos = new ArrayList<>(settings.photos);
+        for (int i = 0; i < settings.photos; i++) {
+            String filename = String.format("photo-%06d.png", i);
+            storageService.store(new MockMultipartFile("file", filename, "image/png", photo(random)));
+            photos.add(filename);
+        }
+        return photos;
+    }
+
+    /**
+     * Draws photos for uploads before the test, so drawing does not delay requests.
+     */
+    private List<byte[]> drawUploads() throws IOException {
+        Random random = new Random(settings.seed * 17);
+        List<byte[]> uploads = new ArrayList<>(settings.uploadPhotos);
+        for (int i = 0; i < settings.uploadPhotos; i++) {
+            uploads.add(photo(random));
+        }
+        return uploads;
+    }
+
+    private Map<Operation, LatencyHistogram> runUsers(String baseUrl, List<String> photos, List<byte[]> uploads)
+            throws Exception {
+        Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            histograms.put(operation, new LatencyHistogram());
+        }
+        Schedule schedule = new Schedule(photos.size(), uploads.size());
+        AtomicInteger nextRequest = new AtomicInteger();
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(settings.warmUpSeconds);
+
+        List<Thread> users = new ArrayList<>(settings.users);
+        for (int user = 0; user < settings.users; user++) {
+            VirtualUser virtualUser = new VirtualUser(baseUrl, photos, uploads, schedule, nextRequest, histograms,
+                    start, measureFrom);
+            Thread thread = new Thread(virtualUser, "load-test-user-" + user);
+            thread.setDaemon(true);
+            users.add(thread);
+            thread.start();
+        }
+        for (Thread thread : users) {
+            thread.join();
+        }
+        return histograms;
+    }
+
+    private void report(Map<Operation, LatencyHistogram> histograms) throws IOException {
+        Path directory = Paths.get(settings.reportDirectory);
+        Files.createDirectories(directory);
+        Path report = directory.resolve("gallery-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date())
+                + ".csv");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(report, StandardCharsets.UTF_8))) {
+            out.println("# " + settings);
+            out.println("operation,count,errors,throughput_per_s,p50_ms,p99_ms,p999_ms,max_ms");
+            System.out.println("Gallery load test: " + settings);
+            System.out.println(String.format("%-8s %10s %8s %12s %10s %10s %10s %10s",
+                    "", "count", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+            for (Map.Entry<Operation, LatencyHistogram> entry : histograms.entrySet()) {
+                printRow(out, entry.getKey().name().toLowerCase(), entry.getValue());
+            }
+            printRow(out, "total", total(histograms));
+        }
+        System.out.println("Report is written to " + report.toAbsolutePath());
+    }
+
+    private void printRow(PrintWriter out, String name, LatencyHistogram histogram) {
+        double throughput = (double) histogram.count() / settings.durationSeconds;
+        double p50 = histogram.percentileMicros(50) / 1000.0;
+        double p99 = histogram.percentileMicros(99) / 1000.0;
+        double p999 = histogram.percentileMicros(99.9) / 1000.0;
+        double max = histogram.maxMicros() / 1000.0;
+        out.println(String.format("%s,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f",
+                name, histogram.count(), histogram.errors(), throughput, p50, p99, p999, max));
+        System.out.println(String.format("%-8s %10d %8d %12.1f %10.3f %10.3f %10.3f %10.3f",
+                name, histogram.count(), histogram.errors(), throughput, p50, p99, p999, max));
+    }
+
+    private static LatencyHistogram total(Map<Operation, LatencyHistogram> histograms) {
+        LatencyHistogram total = new LatencyHistogram();
+        for (LatencyHistogram histogram : histograms.values()) {
+            total.add(histogram);
+        }
+        return total;
+    }
+
+    /**
+     * Draws a synthetic photo, see {@link TestImages#randomImage(long, int, int)}.
+     */
+    private byte[] photo(Random random) throws IOException {
+        return TestImages.png(TestImages.randomImage(random.nextLong(), settings.photoSize, settings.photoSize));
+    }
+
+    /**
+     * Operations and their targets of all requests of the test, drawn from the seed before the test.
+     * Requests are due at fixed intervals, which follow from the rate.
+     */
+    private class Schedule {
+
+        private final Operation[] operations;
+        private final int[] targets;
+
+        Schedule(int photos, int uploads) {
+            int requests = settings.rate * (settings.warmUpSeconds + settings.durationSeconds);
+            Random random = new Random(settings.seed * 31);
+            Operation[] weighted = settings.mix.keySet().toArray(new Operation[0]);
+            int[] cumulativeWeights = new int[weighted.length];
+            int sum = 0;
+            for (int i = 0; i < weighted.length; i++) {
+                sum += settings.mix.get(weighted[i]);
+                cumulativeWeights[i] = sum;
+            }
+            operations = new Operation[requests];
+            targets = new int[requests];
+            for (int request = 0; request < requests; request++) {
+                int value = random.nextInt(sum);
+                int operation = 0;
+                while (value >= cumulativeWeights[operation]) {
+                    operation++;
+                }
+                operations[request] = weighted[operation];
+                targets[request] = random.nextInt(weighted[operation] == Operation.UPLOAD ? uploads : photos);
+            }
+        }
+
+        int size() {
+            return operations.length;
+        }
+
+        /**
+         * @return the time, when the request is due, in nanoseconds since the start of the test.
+         */
+        long dueNanos(int request) {
+            return (long) (request * (double) TimeUnit.SECONDS.toNanos(1) / settings.rate);
+        }
+    }
+
+    /**
+     * A user, which sends scheduled requests when they are due, if it is not busy.
+     * Users take requests in order, so a request, which is due while all users are busy,
+     * is sent late. Its latency is measured from the time it was due, not from the time
+     * it was sent, so slow responses are not hidden by the requests they delay.
+     */
+    private class VirtualUser implements Runnable {
+
+        private final GalleryClient client;
+        private final List<String> photos;
+        private final List<byte[]> uploads;
+        private final Schedule schedule;
+        private final AtomicInteger nextRequest;
+        private final Map<Operation, LatencyHistogram> histograms;
+        private final long start;
+        private final long measureFrom;
+
+        VirtualUser(String baseUrl, List<String> photos, List<byte[]> uploads, Schedule schedule,
+                    AtomicInteger nextRequest, Map<Operation, LatencyHistogram> histograms, long start,
+                    long measureFrom) {
+            this.client = new GalleryClient(baseUrl);
+            this.photos = photos;
+            this.uploads = uploads;
+            this.schedule = schedule;
+            this.nextRequest = nextRequest;
+            this.histograms = histograms;
+            this.start = start;
+            this.measureFrom = measureFrom;
+        }
+
+        @Override
+        public void run() {
+            int request;
+            while ((request = nextRequest.getAndIncrement()) < schedule.size()) {
+                long due = start + schedule.dueNanos(request);
+                long delay = due - System.nanoTime();
+                if (delay > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+
+                Operation operation = schedule.operations[request];
+                int status;
+                try {
+                    status = execute(operation, request, schedule.targets[request]);
+                } catch (IOException e) {
+                    status = -1;
+                }
+                long finished = System.nanoTime();
+
+                if (due >= measureFrom) {
+                    LatencyHistogram histogram = histograms.get(operation);
+                    if (status < 200 || status >= 400) {
+                        histogram.recordError();
+                    } else {
+                        histogram.record(TimeUnit.NANOSECONDS.toMicros(finished - due));
+                    }
+                }
+            }
+        }
+
+        private int execute(Operation operation, int request, int target) throws IOException {
+            switch (operation) {
+                case GALLERY:
+                    return client.gallery();
+                case FILE:
+                    return client.file(photos.get(target));
+                default:
+                    return client.upload(String.format("upload-%08d.png", request), uploads.get(target));
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.dmitriylamzin.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of latencies with logarithmic buckets.
+ *
+ * <p>Every bucket is 2% wider than the previous one, so percentiles are
+ * reported with at most 2% error from a microsecond up to a few minutes
+ * with a fixed amount of memory.
+ */
+class LatencyHistogram {
+
+    private static final double GROWTH = 1.02;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+    private static final int BUCKETS = (int) Math.ceil(Math.log(1e9) / LOG_GROWTH) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long micros) {
+        long value = Math.max(1, micros);
+        int bucket = Math.min(BUCKETS - 1, (int) (Math.log(value) / LOG_GROWTH));
+        counts.incrementAndGet(bucket);
+        total.incrementAndGet();
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    void recordError() {
+        errors.incrementAndGet();
+    }
+
+    long count() {
+        return total.get();
+    }
+
+    long errors() {
+        return errors.get();
+    }
+
+    long maxMicros() {
+        return max.get();
+    }
+
+    /**
+     * @return the upper bound of the bucket, which contains the percentile, in microseconds.
+     */
+    long percentileMicros(double percentile) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(max.get(), (long) Math.ceil(Math.pow(GROWTH, bucket + 1)));
+            }
+        }
+        return max.get();
+    }
+
+    void add(LatencyHistogram other) {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.addAndGet(bucket, other.counts.get(bucket));
+        }
+        total.addAndGet(other.total.get());
+        errors.addAndGet(other.errors.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.dmitriylamzin.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of a load test, read from system properties with <code>loadtest.</code> prefix.
+ *
+ * <p>The same settings and seed produce the same sequence of requests,
+ * so reports of different runs are comparable.
+ */
+class LoadTestSettings {
+
+    /**
+     * Number of synthetic photos stored before the test.
+     */
+    final int photos = Integer.getInteger("loadtest.photos", 200);
+
+    /**
+     * Width and height of synthetic photos in pixels.
+     */
+    final int photoSize = Integer.getInteger("loadtest.photo-size", 256);
+
+    /**
+     * Number of distinct synthetic photos drawn before the test for uploads.
+     */
+    final int uploadPhotos = Integer.getInteger("loadtest.upload-photos", 50);
+
+    /**
+     * Number of requests per second, which are sent at fixed intervals.
+     */
+    final int rate = Integer.getInteger("loadtest.rate", 200);
+
+    /**
+     * Number of concurrent virtual users, which send requests. A request, which is due
+     * while all users are waiting for responses, is sent as soon as one of them is free.
+     */
+    final int users = Integer.getInteger("loadtest.users", 50);
+
+    /**
+     * Duration of warm up in seconds, which is not included in the report.
+     */
+    final int warmUpSeconds = Integer.getInteger("loadtest.warm-up", 10);
+
+    /**
+     * Duration of measurement in seconds.
+     */
+    final int durationSeconds = Integer.getInteger("loadtest.duration", 30);
+
+    /**
+     * Seed of random generators of photos and virtual users.
+     */
+    final long seed = Long.getLong("loadtest.seed", 42);
+
+    /**
+     * Weights of operations, for example <code>gallery=10,file=85,upload=5</code>.
+     */
+    final Map<Operation, Integer> mix = parseMix(System.getProperty("loadtest.mix", "gallery=10,file=85,upload=5"));
+
+    /**
+     * Directory, where reports are written.
+     */
+    final String reportDirectory = System.getProperty("loadtest.report-dir", "target/load-test");
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] weight = entry.trim().split("=");
+            weights.put(Operation.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+        }
+        return weights;
+    }
+
+    @Override
+    public String toString() {
+        return "photos=" + photos + " photoSize=" + photoSize + " uploadPhotos=" + uploadPhotos
+                + " rate=" + rate + "/s users=" + users
+                + " warmUp=" + warmUpSeconds + "s duration=" + durationSeconds + "s seed=" + seed
+                + " mix=" + mix;
+    }
+
+    /**
+     * Operations of the gallery workload.
+     */
+    enum Operation {
+        GALLERY, FILE, UPLOAD
+    }
+}
@@ -0,0 +1,170 @@
+package com.github.dmitriylamzin.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AlbumStorageTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private StorageService storageService;
+
+    @Before
+    public void setUp() throws Exception {
+        StorageProperties properties = new StorageProperties();
+        properties.setLocation(folder.getRoot().toPath().resolve("gallery").toString());
+        properties.setAlbumQuota(20);
+        storageService = new FileSystemStorageService(properties);
+        storageService.init();
+    }
+
+    @Test
+    public void shouldIsolateFilesOfAlbums() {
+        storageService.album("first").store(photo("first.png", "first photo"));
+        storageService.album("second").store(photo("second.png", "second photo"));
+
+        assertThat(storageService.album("first").loadAll().map(Path::toString).collect(Collectors.toList()))
+                .containsOnly("first.png");
+        assertThat(storageService.album("second").loadAll().map(Path::toString).collect(Collectors.toList()))
+                .containsOnly("second.png");
+        assertThat(storageService.loadAll().count()).isZero();
+        assertThat(storageService.loadAlbums().collect(Collectors.toList())).containsExactly("first", "second");
+    }
+
+    @Test
+    public void shouldDeleteOnlyFilesOfAlbum() {
+        storageService.store(photo("default.png", "default photo"));
+        storageService.album("first").store(photo("first.png", "first photo"));
+
+        storageService.album("first").deleteAll();
+
+        assertThat(storageService.album("first").loadAll().count()).isZero();
+        assertThat(storageService.loadAll().map(Path::toString).collect(Collectors.toList()))
+                .containsOnly("default.png");
+    }
+
+    @Test
+    public void shouldKeepAlbumsWhenDefaultAlbumIsDeleted() {
+        storageService.store(photo("default.png", "default photo"));
+        storageService.album("first").store(photo("first.png", "first photo"));
+
+        storageService.deleteAll();
+        storageService.init();
+
+        assertThat(storageService.loadAll().count()).isZero();
+        assertThat(storageService.loadAlbums().collect(Collectors.toList())).containsExactly("first");
+        assertThat(storageService.album("first").loadAll().map(Path::toString).collect(Collectors.toList()))
+                .containsOnly("first.png");
+        assertThat(storageService.album("first").verify("first.png")).isTrue();
+    }
+
+    @Test
+    public void shouldDeleteAlbums() {
+        storageService.store(photo("default.png", "default photo"));
+        storageService.album("first").store(photo("first.png", "first photo"));
+
+        storageService.deleteAlbums();
+
+        assertThat(storageService.loadAlbums().count()).isZero();
+        assertThat(storageService.album("first").loadAll().count()).isZero();
+        assertThat(storageService.loadAll().map(Path::toString).collect(Collectors.toList()))
+                .containsOnly("default.png");
+    }
+
+    @Test
+    public void shouldNotKeepAlbumWhichDoesNotExist() {
+        assertThat(storageService.album("unknown").loadAll().count()).isZero();
+
+        assertThat(storageService.album("unknown")).isNotSameAs(storageService.album("unknown"));
+        assertThat(storageService.loadAlbums().count()).isZero();
+    }
+
+    @Test
+    public void shouldKeepAlbumWhenFileIsStoredToIt() {
+        StorageService unknown = storageService.album("unknown");
+
+        unknown.store(photo("first.png", "first photo"));
+
+        assertThat(storageService.album("unknown")).isSameAs(storageService.album("unknown"));
+        assertThat(storageService.album("unknown").loadAll().map(Path::toString).collect(Collectors.toList()))
+                .containsOnly("first.png");
+        assertThat(unknown.loadAll().map(Path::toString).collect(Collectors.toList()))
+                .containsOnly("first.png");
+    }
+
+    @Test
+    public void shouldThrowStorageExceptionWhenQuotaIsExceeded() {
+        storageService.album("first").store(photo("first.png", "first photo"));
+        storageService.album("second").store(photo("second.png", "second photo"));
+
+        thrown.expect(StorageException.class);
+        thrown.expectMessage("Failed to store file third.png, quota is exceeded");
+
+        storageService.album("first").store(photo("third.png", "third photo"));
+    }
+
+    @Test
+    public void shouldThrowStorageExceptionWhenAlbumNameIsInvalid() {
+        thrown.expect(StorageException.class);
+        thrown.expectMessage("Invalid album name ..");
+
+        storageService.album("..");
+    }
+
+    @Test
+    public void shouldStoreOnlyOneOfConcurrentFilesWithTheSameName() throws Exception {
+        int uploads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(uploads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < uploads; i++) {
+                MockMultipartFile file = photo("same.png", "file" + i);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        storageService.store(file);
+                        return true;
+                    } catch (StorageException e) {
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+            int stored = 0;
+            for (Future<Boolean> result : results) {
+                stored += result.get() ? 1 : 0;
+            }
+
+            assertThat(stored).isEqualTo(1);
+            assertThat(storageService.verify("same.png")).isTrue();
+            // only the stored file counts towards the quota
+            storageService.store(photo("other.png", "fifteen bytes!!"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private MockMultipartFile photo(String filename, String content) {
+        return new MockMultipartFile("file", filename, "image/png", content.getBytes());
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.dmitriylamzin.storage;
+
+import com.github.dmitriylamzin.image.TestImages;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DuplicateDetectionTests {
+
+    private static final int UPLOADERS = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void shouldFindRescaledCopyAsSimilar() throws Exception {
+        StorageService storageService = storageService(false);
+        BufferedImage original = randomImage(1);
+        storageService.store(photo("original.png", original));
+        storageService.store(photo("rescaled.png", rescale(original, 133, 100)));
+        storageService.store(photo("other.png", randomImage(2)));
+
+        assertThat(storageService.loadSimilar("original.png", 8).map(Path::toString).collect(Collectors.toList()))
+                .containsExactly("rescaled.png");
+    }
+
+    @Test
+    public void shouldRejectDuplicateWhenPolicyIsEnabled() throws Exception {
+        StorageService storageService = storageService(true);
+        BufferedImage original = randomImage(1);
+        storageService.store(photo("original.png", original));
+
+        thrown.expect(StorageException.class);
+        thrown.expectMessage("Failed to store file rescaled.png, it is similar to original.png");
+
+        storageService.store(photo("rescaled.png", rescale(original, 133, 100)));
+    }
+
+    @Test
+    public void shouldLimitDuplicateDistanceToSupportedRange() throws Exception {
+        StorageService storageService = storageService(true, 64);
+        storageService.store(photo("original.png", randomImage(1)));
+
+        thrown.expect(StorageException.class);
+        thrown.expectMessage("Failed to store file copy.png, it is similar to original.png");
+
+        storageService.store(photo("copy.png", randomImage(1)));
+    }
+
+    @Test
+    public void shouldStoreOnlyOneOfConcurrentDuplicates() throws Exception {
+        StorageService storageService = storageService(true);
+        BufferedImage original = randomImage(1);
+        List<MockMultipartFile> photos = new ArrayList<>();
+        for (int i = 0; i < UPLOADERS; i++) {
+            photos.add(photo("copy" + i + ".png", rescale(original, 400 - i, 300)));
+        }
+        CyclicBarrier start = new CyclicBarrier(UPLOADERS);
+        ExecutorService uploaders = Executors.newFixedThreadPool(UPLOADERS);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (MockMultipartFile photo : photos) {
+            results.add(uploaders.submit(() -> {
+                start.await();
+                try {
+                    storageService.store(photo);
+                    return true;
+                } catch (StorageFileRejectedException e) {
+                    return false;
+                }
+            }));
+        }
+        int stored = 0;
+        for (Future<Boolean> result : results) {
+            stored += result.get(30, TimeUnit.SECONDS) ? 1 : 0;
+        }
+        uploaders.shutdown();
+
+        assertThat(stored).isEqualTo(1);
+        assertThat(storageService.loadAll().count()).isEqualTo(1);
+    }
+
+    private StorageService storageService(boolean rejectDuplicates) {
+        return storageService(rejectDuplicates, 8);
+    }
+
+    private StorageService storageService(boolean rejectDuplicates, int duplicateDistance) {
+        StorageProperties properties = new StorageProperties();
+        properties.setLocation(folder.getRoot().toPath().resolve("gallery").toString());
+        properties.setRejectDuplicates(rejectDuplicates);
+        properties.setDuplicateDistance(duplicateDistance);
+        StorageService storageService = new FileSystemStorageService(properties);
+        storageService.init();
+        return storageService;
+    }
+
+    private static BufferedImage randomImage(long seed) {
+        return TestImages.randomImage(seed, 400, 300);
+    }
+
+    private static BufferedImage rescale(BufferedImage image, int width, int height) {
+        BufferedImage rescaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rescaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return rescaled;
+    }
+
+    private static MockMultipartFile photo(String filename, BufferedImage image) throws Exception {
+        return new MockMultipartFile("file", filename, "image/png", TestImages.png(image));
+    }
+}
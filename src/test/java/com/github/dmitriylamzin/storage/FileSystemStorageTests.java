@@ -10,6 +10,12 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
 @RunWith(SpringRunner.class)
 @SpringBootTest
 public class FileSystemStorageTests {
@@ -56,4 +62,52 @@ public class FileSystemStorageTests {
 
         storageService.store(multipartFile);
     }
+
+    @Test
+    public void shouldVerifyStoredFile(){
+        storageService.store(new MockMultipartFile("file", "verified.png", "image/png", "some bytes".getBytes()));
+
+        assertThat(storageService.verify("verified.png")).isTrue();
+    }
+
+    @Test
+    public void shouldVerifyFileWhichReplacementHasBeenInterrupted() throws Exception {
+        storageService.store(new MockMultipartFile("file", "interrupted.png", "image/png", "some bytes".getBytes()));
+        FileMetadata stored = storageService.loadMetadata("interrupted.png");
+        MetadataStore metadataStore = new MetadataStore(storageService.load(""));
+
+        metadataStore.write("interrupted.png", new FileMetadata(stored.getChecksum() + 1, 5, null, stored));
+        assertThat(storageService.verify("interrupted.png")).isTrue();
+
+        metadataStore.write("interrupted.png", new FileMetadata(stored.getChecksum() + 1, 5));
+        assertThat(storageService.verify("interrupted.png")).isFalse();
+    }
+
+    @Test
+    public void shouldRecomputeMetadataWhenSidecarCanNotBeParsed() throws Exception {
+        storageService.store(new MockMultipartFile("file", "unparsable.png", "image/png", "some bytes".getBytes()));
+        Files.write(storageService.load(MetadataStore.META_DIRECTORY).resolve("unparsable.png.properties"),
+                "crc32=\nsize=".getBytes());
+
+        assertThat(storageService.verify("unparsable.png")).isTrue();
+        assertThat(storageService.loadMetadata("unparsable.png").getSize()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldDetectCorruptedFile() throws Exception {
+        storageService.store(new MockMultipartFile("file", "corrupted.png", "image/png", "some bytes".getBytes()));
+        Files.write(storageService.load("corrupted.png"), "some bytez".getBytes());
+
+        assertThat(storageService.verify("corrupted.png")).isFalse();
+    }
+
+    @Test
+    public void shouldNotListQuarantinedFile(){
+        storageService.store(new MockMultipartFile("file", "quarantined.png", "image/png", "some bytes".getBytes()));
+
+        storageService.quarantine("quarantined.png");
+
+        assertThat(storageService.loadAll().map(Path::toString).collect(Collectors.toList()))
+                .doesNotContain("quarantined.png");
+    }
 }
@@ -0,0 +1,174 @@
+package com.github.dmitriylamzin.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GalleryArchiverTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private StorageService source;
+
+    private StorageService target;
+
+    @Before
+    public void setUp() throws Exception {
+        source = storageService("source");
+        target = storageService("target");
+    }
+
+    @Test
+    public void shouldImportExportedGallery() throws Exception {
+        source.store(new MockMultipartFile("file", "first.png", "image/png", "first photo".getBytes()));
+        source.store(new MockMultipartFile("file", "second.png", "image/png", "second photo".getBytes()));
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+        int exported = archiver(source).exportArchive(archive);
+        int imported = archiver(target).importArchive(new ByteArrayInputStream(archive.toByteArray()));
+
+        assertThat(exported).isEqualTo(2);
+        assertThat(imported).isEqualTo(2);
+        assertThat(target.loadAll().map(Path::toString).collect(Collectors.toList()))
+                .containsOnly("first.png", "second.png");
+        assertThat(Files.readAllBytes(target.load("second.png"))).isEqualTo("second photo".getBytes());
+        assertThat(target.verify("second.png")).isTrue();
+    }
+
+    @Test
+    public void shouldSkipFileWhichSizeDoesNotMatchMetadata() throws Exception {
+        source.store(new MockMultipartFile("file", "first.png", "image/png", "first photo".getBytes()));
+        source.store(new MockMultipartFile("file", "second.png", "image/png", "second photo".getBytes()));
+        Files.write(source.load("first.png"), "first".getBytes());
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+        int exported = archiver(source).exportArchive(archive);
+        int imported = archiver(target).importArchive(new ByteArrayInputStream(archive.toByteArray()));
+
+        assertThat(exported).isEqualTo(1);
+        assertThat(imported).isEqualTo(1);
+        assertThat(target.loadAll().map(Path::toString).collect(Collectors.toList()))
+                .containsOnly("second.png");
+    }
+
+    @Test
+    public void shouldSkipFileWhichChecksumDoesNotMatchMetadata() throws Exception {
+        source.store(new MockMultipartFile("file", "first.png", "image/png", "first photo".getBytes()));
+        source.store(new MockMultipartFile("file", "second.png", "image/png", "second photo".getBytes()));
+        byte[] flipped = "first photo".getBytes();
+        flipped[0] ^= 1;
+        Files.write(source.load("first.png"), flipped);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+        int exported = archiver(source).exportArchive(archive);
+        int imported = archiver(target).importArchive(new ByteArrayInputStream(archive.toByteArray()));
+
+        assertThat(exported).isEqualTo(1);
+        assertThat(imported).isEqualTo(1);
+        assertThat(target.loadAll().map(Path::toString).collect(Collectors.toList()))
+                .containsOnly("second.png");
+    }
+
+    @Test
+    public void shouldValidateImportedEntries() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("notes.txt"));
+            zip.write("not a photo".getBytes());
+            zip.closeEntry();
+        }
+
+        thrown.expect(StorageException.class);
+        thrown.expectMessage("Failed to import gallery");
+
+        archiver(target).importArchive(new ByteArrayInputStream(archive.toByteArray()));
+    }
+
+    @Test
+    public void shouldRejectEntryNestedDeeperThanAlbum() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("trip/day/photo.png"));
+            zip.write("nested photo".getBytes());
+            zip.closeEntry();
+        }
+
+        thrown.expect(StorageException.class);
+        thrown.expectMessage("Failed to import gallery");
+
+        try {
+            archiver(target).importArchive(new ByteArrayInputStream(archive.toByteArray()));
+        } finally {
+            assertThat(target.loadAlbums().count()).isZero();
+        }
+    }
+
+    @Test
+    public void shouldRejectEntryLargerThanMaxSize() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("large.png"));
+            zip.write(new byte[100]);
+            zip.closeEntry();
+        }
+        StorageProperties properties = new StorageProperties();
+        properties.setArchiveEntryMaxSize(99);
+
+        thrown.expect(StorageException.class);
+        thrown.expectMessage("Failed to import gallery");
+
+        try {
+            new GalleryArchiver(target, properties).importArchive(new ByteArrayInputStream(archive.toByteArray()));
+        } finally {
+            assertThat(target.loadAll().count()).isZero();
+        }
+    }
+
+    @Test
+    public void shouldFailWhenEntryCanNotBeStored() throws Exception {
+        source.store(new MockMultipartFile("file", "first.png", "image/png", "first photo".getBytes()));
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archiver(source).exportArchive(archive);
+        StorageService failing = new FileSystemStorageService(new StorageProperties()) {
+            @Override
+            public void store(MultipartFile file) {
+                throw new IllegalStateException("Unexpected failure");
+            }
+        };
+
+        thrown.expect(StorageException.class);
+        thrown.expectMessage("Failed to import gallery");
+
+        archiver(failing).importArchive(new ByteArrayInputStream(archive.toByteArray()));
+    }
+
+    private StorageService storageService(String location) {
+        StorageProperties properties = new StorageProperties();
+        properties.setLocation(folder.getRoot().toPath().resolve(location).toString());
+        StorageService storageService = new FileSystemStorageService(properties);
+        storageService.init();
+        return storageService;
+    }
+
+    private GalleryArchiver archiver(StorageService storageService) {
+        return new GalleryArchiver(storageService, new StorageProperties());
+    }
+}
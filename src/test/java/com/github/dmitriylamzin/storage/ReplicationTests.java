@@ -0,0 +1,356 @@
+package com.github.dmitriylamzin.storage;
+
+import com.github.dmitriylamzin.Application;
+import com.github.dmitriylamzin.storage.ReplicationLog.Change;
+import com.github.dmitriylamzin.storage.ReplicationLog.Operation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Runs two replicated nodes of the gallery on localhost.
+ */
+public class ReplicationTests {
+
+    private static final long TIMEOUT = 10000;
+
+    private static final String SECRET = "shared secret";
+
+    private static final List<String> PEERS = Collections.singletonList("peer");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private int firstPort;
+
+    private int secondPort;
+
+    private ConfigurableApplicationContext first;
+
+    private ConfigurableApplicationContext second;
+
+    @Before
+    public void setUp() throws Exception {
+        firstPort = freePort();
+        secondPort = freePort();
+        first = startNode("first", firstPort, secondPort);
+        second = startNode("second", secondPort, firstPort);
+    }
+
+    @After
+    public void tearDown() {
+        if (first != null) {
+            first.close();
+        }
+        if (second != null) {
+            second.close();
+        }
+    }
+
+    @Test
+    public void shouldReplicateStoredFiles() throws Exception {
+        storage(first).store(photo("default.png", "default photo"));
+        storage(first).album("trip").store(photo("trip.png", "trip photo"));
+
+        awaitFiles(storage(second), "default.png");
+        awaitFiles(storage(second).album("trip"), "trip.png");
+        assertThat(Files.readAllBytes(storage(second).load("default.png")))
+                .isEqualTo("default photo".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldNotDeleteReplicatedFiles() throws Exception {
+        storage(first).store(photo("kept.png", "kept photo"));
+        awaitFiles(storage(second), "kept.png");
+
+        thrown.expect(StorageException.class);
+        try {
+            storage(second).deleteAll();
+        } finally {
+            assertThat(names(storage(second))).containsExactly("kept.png");
+            assertThat(names(storage(first))).containsExactly("kept.png");
+        }
+    }
+
+    @Test
+    public void shouldForbidReplicationRequestsWithoutSecret() throws Exception {
+        String url = "http://localhost:" + firstPort + "/replication/position?origin=second";
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(ReplicatingStorageService.SECRET_HEADER, "wrong secret");
+        RestTemplate restTemplate = new RestTemplate();
+
+        for (HttpEntity<?> request : Arrays.asList(HttpEntity.EMPTY, new HttpEntity<>(headers))) {
+            try {
+                restTemplate.exchange(url, HttpMethod.GET, request, String.class);
+                fail("Request should be forbidden");
+            } catch (HttpClientErrorException e) {
+                assertThat(e.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+            }
+        }
+
+        headers.set(ReplicatingStorageService.SECRET_HEADER, SECRET);
+        assertThat(restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    public void shouldCatchUpAfterRestart() throws Exception {
+        second.close();
+        storage(first).store(photo("missed.png", "missed photo"));
+
+        second = startNode("second", secondPort, firstPort);
+
+        awaitFiles(storage(second), "missed.png");
+    }
+
+    @Test
+    public void shouldSendAllFilesToPeerWhichMissedCompactedChanges() throws Exception {
+        first.close();
+        second.close();
+        Path root = folder.getRoot().toPath().resolve("third");
+        StorageProperties storageProperties = new StorageProperties();
+        storageProperties.setLocation(root.resolve("gallery").toString());
+        FileSystemStorageService storage = new FileSystemStorageService(storageProperties);
+        storage.init();
+        try (ReplicationLog log = new ReplicationLog(root.resolve("replication-log"), null,
+                Collections.singletonList("old peer"))) {
+            storage.store(photo("old.png", "old photo"));
+            log.append(Operation.STORE, null, "old.png").complete();
+            storage.album("trip").store(photo("trip.png", "trip photo"));
+            log.append(Operation.STORE, "trip", "trip.png").complete();
+            storage.store(photo("last.png", "last photo"));
+            log.append(Operation.STORE, null, "last.png").complete();
+            log.acknowledge("old peer", 3);
+            log.compact();
+            assertThat(log.getFirstSequence()).isEqualTo(3);
+        }
+
+        first = startNode("third", firstPort, secondPort);
+        second = startNode("fourth", secondPort, firstPort);
+
+        awaitFiles(storage(second), "last.png", "old.png");
+        awaitFiles(storage(second).album("trip"), "trip.png");
+    }
+
+    @Test
+    public void shouldFetchQuarantinedFileFromPeer() throws Exception {
+        storage(first).store(photo("damaged.png", "damaged photo"));
+        awaitFiles(storage(second), "damaged.png");
+
+        storage(second).quarantine("damaged.png");
+
+        assertThat(storage(second).loadAsResource("damaged.png").exists()).isTrue();
+        assertThat(Files.readAllBytes(storage(second).load("damaged.png")))
+                .isEqualTo("damaged photo".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldNotFetchFileUnknownToReplicationFromPeers() throws Exception {
+        StorageProperties storageProperties = new StorageProperties();
+        storageProperties.setLocation(folder.newFolder("gallery").toString());
+        storageProperties.setCleanOnStartup(false);
+        storageProperties.setCleanOnUploadForm(false);
+        FileSystemStorageService delegate = new FileSystemStorageService(storageProperties);
+        delegate.init();
+        try (ServerSocket peer = new ServerSocket(0)) {
+            ReplicationProperties properties = new ReplicationProperties();
+            properties.setPeers(Collections.singletonList("http://localhost:" + peer.getLocalPort()));
+            properties.setLogLocation(folder.newFolder("replication-log").toString());
+            properties.setSecret(SECRET);
+            properties.setTimeout(500);
+            properties.setFetchTimeout(500);
+            ReplicatingStorageService storage =
+                    new ReplicatingStorageService(delegate, storageProperties, properties);
+            try {
+                storage.loadAsResource("unknown.png");
+                fail("Unknown file should not be found");
+            } catch (StorageFileNotFoundException e) {
+                assertThat(requests(peer).stream().filter(request -> request.contains("/replication/files"))
+                        .collect(Collectors.toList())).isEmpty();
+            } finally {
+                storage.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void shouldKeepChangeLogAndCutIncompleteChangeAfterRestart() throws Exception {
+        Path location = folder.newFolder("log").toPath();
+        try (ReplicationLog log = new ReplicationLog(location, "node", PEERS)) {
+            log.append(Operation.STORE, null, "first.png").complete();
+            log.append(Operation.STORE, "trip", "second.png").complete();
+            log.setPosition("peer", 7);
+        }
+        Files.write(location.resolve("changes.log"), "3\tSTO".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        try (ReplicationLog log = new ReplicationLog(location, "node", PEERS)) {
+            List<Change> changes = log.readAfter(0, 10);
+            assertThat(changes).extracting("filename").containsExactly("first.png", "second.png");
+            assertThat(changes.get(1).album).isEqualTo("trip");
+            assertThat(log.getPosition("peer")).isEqualTo(7);
+            assertThat(log.append(Operation.STORE, null, "third.png").sequence).isEqualTo(3);
+        }
+    }
+
+    @Test
+    public void shouldCompactChangesAppliedByAllPeers() throws Exception {
+        Path location = folder.newFolder("log").toPath();
+        try (ReplicationLog log = new ReplicationLog(location, "node", PEERS)) {
+            log.append(Operation.STORE, null, "first.png").complete();
+            log.append(Operation.STORE, null, "second.png").complete();
+            log.append(Operation.STORE, null, "third.png").complete();
+
+            log.compact();
+            assertThat(log.readAfter(0, 10)).hasSize(3);
+
+            log.acknowledge("peer", 2);
+            log.compact();
+            assertThat(log.readAfter(0, 10)).extracting("filename").containsExactly("third.png");
+
+            log.acknowledge("peer", 3);
+            log.compact();
+            assertThat(log.readAfter(2, 10)).extracting("filename").containsExactly("third.png");
+        }
+
+        try (ReplicationLog log = new ReplicationLog(location, "node", PEERS)) {
+            assertThat(log.readAfter(0, 10)).extracting("sequence").containsExactly(3L);
+            assertThat(log.append(Operation.STORE, null, "fourth.png").sequence).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void shouldAdvancePositionOnlyWhenChangeIsAppliedOrRejected() throws Exception {
+        StorageProperties storageProperties = new StorageProperties();
+        storageProperties.setLocation(folder.newFolder("gallery").toString());
+        storageProperties.setCleanOnStartup(false);
+        storageProperties.setCleanOnUploadForm(false);
+        FileSystemStorageService delegate = new FileSystemStorageService(storageProperties) {
+            @Override
+            public void store(MultipartFile file) {
+                if (file.getOriginalFilename().equals("failing.png")) {
+                    throw new StorageException("No space left on device");
+                }
+                super.store(file);
+            }
+        };
+        delegate.init();
+        ReplicationProperties properties = new ReplicationProperties();
+        properties.setPeers(Collections.singletonList("http://localhost:" + freePort()));
+        properties.setLogLocation(folder.newFolder("replication-log").toString());
+        properties.setSecret(SECRET);
+        ReplicatingStorageService storage = new ReplicatingStorageService(delegate, storageProperties, properties);
+
+        storage.apply("origin", 1, "STORE", null, "stored.png", "photo".getBytes(StandardCharsets.UTF_8));
+        storage.apply("origin", 2, "STORE", null, "notes.txt", "not a photo".getBytes(StandardCharsets.UTF_8));
+        assertThat(storage.getPosition("origin")).isEqualTo(2);
+        assertThat(names(delegate)).containsExactly("stored.png");
+
+        thrown.expect(StorageException.class);
+        thrown.expectMessage("No space left on device");
+        try {
+            storage.apply("origin", 3, "STORE", null, "failing.png", "photo".getBytes(StandardCharsets.UTF_8));
+        } finally {
+            assertThat(storage.getPosition("origin")).isEqualTo(2);
+            storage.destroy();
+        }
+    }
+
+    private ConfigurableApplicationContext startNode(String name, int port, int peerPort) throws IOException {
+        Path root = folder.getRoot().toPath().resolve(name);
+        return new SpringApplicationBuilder(Application.class)
+                .properties(
+                        "server.port=" + port,
+                        "spring.jmx.enabled=false",
+                        "storage.location=" + root.resolve("gallery"),
+                        "storage.clean-on-startup=false",
+                        "storage.clean-on-upload-form=false",
+                        "storage.scrub-enabled=false",
+                        "replication.enabled=true",
+                        "replication.secret=" + SECRET,
+                        "replication.peers[0]=http://localhost:" + peerPort,
+                        "replication.log-location=" + root.resolve("replication-log"),
+                        "replication.ship-interval=100")
+                .run();
+    }
+
+    private static StorageService storage(ConfigurableApplicationContext context) {
+        return context.getBean(StorageService.class);
+    }
+
+    private static void awaitFiles(StorageService storageService, String... filenames) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        List<String> stored = names(storageService);
+        while (!stored.equals(Arrays.asList(filenames)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            stored = names(storageService);
+        }
+        assertThat(stored).containsExactly(filenames);
+    }
+
+    private static List<String> names(StorageService storageService) {
+        return storageService.loadAll().map(Path::toString).collect(Collectors.toList());
+    }
+
+    /**
+     * @return request lines of all connections made to the server.
+     * */
+    private static List<String> requests(ServerSocket server) throws IOException {
+        List<String> requests = new ArrayList<>();
+        server.setSoTimeout(200);
+        while (true) {
+            try (Socket socket = server.accept()) {
+                socket.setSoTimeout(200);
+                requests.add(new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.ISO_8859_1)).readLine());
+            } catch (SocketTimeoutException e) {
+                return requests;
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static MockMultipartFile photo(String filename, String content) {
+        return new MockMultipartFile("file", filename, "image/png", content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.dmitriylamzin.storage;
+
+import com.github.dmitriylamzin.image.TestImages;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StorageScrubberTests {
+
+    private static final int PHOTOS = 12;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StorageProperties properties;
+
+    private FileSystemStorageService storageService;
+
+    private QueuedExecutor optimizer;
+
+    @Before
+    public void setUp() throws Exception {
+        properties = new StorageProperties();
+        properties.setLocation(folder.getRoot().toPath().resolve("gallery").toString());
+        properties.setVerifyOnLoad(true);
+        properties.setScrubBytesPerSecond(0);
+        optimizer = new QueuedExecutor();
+        storageService = new FileSystemStorageService(properties, optimizer);
+        storageService.init();
+    }
+
+    @After
+    public void tearDown() {
+        storageService.destroy();
+    }
+
+    @Test
+    public void shouldNotQuarantineFilesRecompressedDuringScrub() throws Exception {
+        StorageScrubber scrubber = new StorageScrubber(storageService, properties);
+        Map<String, Long> storedSizes = new HashMap<>();
+        for (int i = 0; i < PHOTOS; i++) {
+            byte[] png = png(i);
+            String filename = "photo" + i + ".png";
+            storageService.store(new MockMultipartFile("file", filename, "image/png", png));
+            storedSizes.put(filename, (long) png.length);
+        }
+
+        assertThat(optimizer.tasks).hasSize(PHOTOS);
+        int quarantined = 0;
+        Runnable recompression;
+        while ((recompression = optimizer.tasks.poll()) != null) {
+            Thread thread = new Thread(recompression);
+            thread.start();
+            quarantined += scrubber.scrub();
+            thread.join();
+            quarantined += scrubber.scrub();
+            for (String filename : storedSizes.keySet()) {
+                assertThat(storageService.loadAsResource(filename).exists()).isTrue();
+            }
+        }
+
+        assertThat(quarantined).isZero();
+        assertThat(allRecompressed(storedSizes)).isTrue();
+        for (String filename : storedSizes.keySet()) {
+            assertThat(storageService.verify(filename)).isTrue();
+        }
+    }
+
+    private boolean allRecompressed(Map<String, Long> storedSizes) throws Exception {
+        for (Map.Entry<String, Long> stored : storedSizes.entrySet()) {
+            if (Files.size(storageService.load(stored.getKey())) >= stored.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] png(int seed) throws Exception {
+        return TestImages.uncompressedPng(TestImages.randomImage(seed, 301, 197));
+    }
+
+    /**
+     * Keeps submitted tasks, so the test runs them when it needs.
+     */
+    private static class QueuedExecutor extends AbstractExecutorService {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            List<Runnable> pending = new ArrayList<>(tasks);
+            tasks.clear();
+            return pending;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return shutdown;
+        }
+    }
+}